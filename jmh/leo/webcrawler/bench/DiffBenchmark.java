@@ -0,0 +1,149 @@
+package leo.webcrawler.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.diff.ListingEvent;
+import leo.webcrawler.diff.SeenListingIndex;
+import leo.webcrawler.store.ListingStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The purpose of this class is to measure the diff of a crawled snapshot
+ * against the seen listings, as the controller runs it after every crawl:
+ * the steady case where every listing was seen before, in memory and against
+ * the listing store, and a case where a tenth of the listings change price
+ * on every crawl.
+ *
+ * @author leoky
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+	@Param({ "44", "1000" })
+	private int snapshotSize;
+
+	private List<ExtractedData> snapshot;
+	private List<ExtractedData> repriced;
+	private SeenListingIndex memoryIndex;
+	private SeenListingIndex changingIndex;
+	private SeenListingIndex storeIndex;
+	private ListingStore store;
+	private File storeDirectory;
+	private boolean flip;
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @throws IOException
+	 */
+	@Setup
+	public void setUp() throws IOException {
+
+		snapshot = snapshot(false);
+		repriced = snapshot(true);
+
+		memoryIndex = new SeenListingIndex();
+		memoryIndex.diff(snapshot, 0);
+		changingIndex = new SeenListingIndex();
+		changingIndex.diff(snapshot, 0);
+
+		storeDirectory = Files.createTempDirectory("listing-store-bench").toFile();
+		store = ListingStore.open(storeDirectory, 4 * 1024 * 1024);
+		storeIndex = new SeenListingIndex(store);
+		storeIndex.diff(snapshot, 0);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 */
+	@TearDown
+	public void tearDown() {
+
+		store.close();
+		File[] files = storeDirectory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		storeDirectory.delete();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public List<ListingEvent> steadyInMemory() {
+
+		return memoryIndex.diff(snapshot, 0);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public List<ListingEvent> steadyInStore() {
+
+		return storeIndex.diff(snapshot, 0);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to diff snapshots that alternate between
+	 * two prices for a tenth of the listings
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public List<ListingEvent> priceChanges() {
+
+		flip = !flip;
+		return changingIndex.diff(flip ? repriced : snapshot, 0);
+	}
+
+	private List<ExtractedData> snapshot(boolean repriced) throws MalformedURLException {
+
+		List<ExtractedData> listings = new ArrayList<ExtractedData>(snapshotSize);
+		for (int i = 0; i < snapshotSize; i++) {
+			ExtractedData listing = new ExtractedData("Garsoniera " + i,
+					"https://www.olx.ro/oferta/garsoniera-ID" + PageCorpus.listingId(i / 1000, i % 1000) + ".html");
+			listing.setPrice((repriced && i % 10 == 0 ? 140 : 150) + i + " EUR");
+			listing.setData("Azi 12:" + (10 + i % 50));
+			listings.add(listing);
+		}
+		return listings;
+	}
+}
@@ -0,0 +1,128 @@
+package leo.webcrawler.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import leo.webcrawler.connect.ListingRegionReader;
+import leo.webcrawler.extract.ListingExtractor;
+import leo.webcrawler.extract.SiteDefinition;
+import leo.webcrawler.extract.SiteDefinitions;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * The purpose of this class is to measure the cost of turning a result page
+ * into listings: parsing the whole page and walking it once, reading only the
+ * listing region before parsing, and, as the reference for the old
+ * extraction, the three whole document select() passes it used to make. One
+ * operation goes through every page of the corpus.
+ *
+ * @author leoky
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	private static final String BASE_URI = "https://www.olx.ro/imobiliare/apartamente-garsoniere-de-inchiriat/timisoara/";
+
+	private List<String> pages;
+	private SiteDefinition site;
+	private ListingRegionReader regionReader;
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @throws IOException
+	 */
+	@Setup
+	public void setUp() throws IOException {
+
+		pages = PageCorpus.load();
+		site = SiteDefinitions.getInstance().forUrl(BASE_URI);
+		regionReader = new ListingRegionReader(site.getRegionStart(), site.getRegionEnd());
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void extractFullPage(Blackhole blackhole) {
+
+		for (String page : pages) {
+			Document doc = Jsoup.parse(page, BASE_URI);
+			blackhole.consume(ListingExtractor.extractPage(doc.body(), site));
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param blackhole
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void extractListingRegion(Blackhole blackhole) throws IOException {
+
+		for (String page : pages) {
+			String region = regionReader.read(new StringReader(page)).getText();
+			Document doc = Jsoup.parse(region, BASE_URI);
+			blackhole.consume(ListingExtractor.extractPage(doc.body(), site));
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to measure the DOM walks of the old
+	 * extraction, without the matching it did afterwards
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void threeSelectPasses(Blackhole blackhole) {
+
+		for (String page : pages) {
+			Document doc = Jsoup.parse(page, BASE_URI);
+			blackhole.consume(doc.select("a"));
+			blackhole.consume(doc.select("strong"));
+			blackhole.consume(doc.select("p"));
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void parseOnly(Blackhole blackhole) {
+
+		for (String page : pages)
+			blackhole.consume(Jsoup.parse(page, BASE_URI));
+	}
+}
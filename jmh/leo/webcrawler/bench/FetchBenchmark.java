@@ -0,0 +1,133 @@
+package leo.webcrawler.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import leo.webcrawler.connect.FetchResult;
+import leo.webcrawler.connect.HostRateLimiter;
+import leo.webcrawler.connect.HttpClient;
+import leo.webcrawler.connect.ListingRegionReader;
+import leo.webcrawler.connect.PageFetcher;
+import leo.webcrawler.extract.SiteDefinition;
+import leo.webcrawler.extract.SiteDefinitions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * The purpose of this class is to measure fetching a result page through the
+ * shared HTTP client from a local server standing in for the site: a full
+ * fetch that reads the gzip compressed page up to the end of the listing
+ * region, and a conditional fetch of a page that did not change. The rate
+ * limiter is opened wide so the client itself is measured.
+ *
+ * @author leoky
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchBenchmark {
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private PageFetcher pageFetcher;
+	private String url;
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @throws IOException
+	 */
+	@Setup
+	public void setUp() throws IOException {
+
+		final byte[] page = gzip(PageCorpus.syntheticPage(1, PageCorpus.LISTINGS_PER_PAGE).getBytes(StandardCharsets.UTF_8));
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, page.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(page);
+			}
+		});
+		serverExecutor = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/imobiliare/";
+		SiteDefinition site = SiteDefinitions.getInstance().forUrl(url);
+		HttpClient httpClient = new HttpClient(5000, 10000, new HostRateLimiter(1000000, 1000000));
+		pageFetcher = new PageFetcher(httpClient, new ListingRegionReader(site.getRegionStart(), site.getRegionEnd()));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 */
+	@TearDown
+	public void tearDown() {
+
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	@Benchmark
+	public FetchResult fetch() throws IOException {
+
+		return pageFetcher.fetch(url, false);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	@Benchmark
+	public FetchResult conditionalFetch() throws IOException {
+
+		return pageFetcher.fetch(url, true);
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(bytes);
+		}
+		return out.toByteArray();
+	}
+}
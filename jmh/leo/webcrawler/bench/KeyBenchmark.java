@@ -0,0 +1,137 @@
+package leo.webcrawler.bench;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.bean.ListingKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The purpose of this class is to measure how listings are identified:
+ * building the key of an address, and inserting and looking up a snapshot of
+ * listings in hash sets, which is what every diff does.
+ *
+ * @author leoky
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyBenchmark {
+
+	@Param({ "1000", "100000" })
+	private int size;
+
+	private List<String> urls;
+	private List<ExtractedData> listings;
+	private List<ExtractedData> sameListings;
+	private Set<ExtractedData> listingSet;
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @throws MalformedURLException
+	 */
+	@Setup
+	public void setUp() throws MalformedURLException {
+
+		urls = new ArrayList<String>(size);
+		listings = new ArrayList<ExtractedData>(size);
+		sameListings = new ArrayList<ExtractedData>(size);
+		for (int i = 0; i < size; i++) {
+			String url = "https://www.olx.ro/oferta/garsoniera-zona-centrala-ID" + PageCorpus.listingId(i / 1000, i % 1000) + ".html#a1b2c3";
+			urls.add(url);
+			listings.add(new ExtractedData("Garsoniera " + i, url));
+			sameListings.add(new ExtractedData("Garsoniera " + i, url));
+		}
+		listingSet = new HashSet<ExtractedData>(listings);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public long buildKeys() {
+
+		long sum = 0;
+		for (String url : urls)
+			sum += ListingKey.of(url).hashCode();
+		return sum;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public Set<ExtractedData> insertSnapshot() {
+
+		Set<ExtractedData> set = new HashSet<ExtractedData>(size * 2);
+		for (ExtractedData listing : listings)
+			set.add(listing);
+		return set;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to look up listings equal to, but not the
+	 * same objects as, the ones in the set
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public int containsSnapshot() {
+
+		int found = 0;
+		for (ExtractedData listing : sameListings) {
+			if (listingSet.contains(listing))
+				found++;
+		}
+		return found;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public int equalsAndHashCode() {
+
+		int equal = 0;
+		for (int i = 0; i < size; i++) {
+			ExtractedData first = listings.get(i);
+			ExtractedData second = sameListings.get(i);
+			if (first.hashCode() == second.hashCode() && first.equals(second))
+				equal++;
+		}
+		return equal;
+	}
+}
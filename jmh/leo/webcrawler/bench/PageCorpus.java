@@ -0,0 +1,125 @@
+package leo.webcrawler.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * The purpose of this class is to give the benchmarks result pages to work
+ * on. Saved OLX result pages are read from the directory named by the
+ * bench.pages property (every .html file in it); without it, pages shaped
+ * like OLX result pages are generated: a header with scripts, the offers
+ * table with listing cards, the pager with its end marker and a footer.
+ *
+ * @author leoky
+ *
+ */
+final class PageCorpus {
+
+	static final int LISTINGS_PER_PAGE = 44;
+	static final int SYNTHETIC_PAGES = 8;
+
+	private PageCorpus() {
+
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the pages of the corpus as text
+	 * @throws IOException
+	 */
+	static List<String> load() throws IOException {
+
+		String directory = System.getProperty("bench.pages");
+		List<String> pages = new ArrayList<String>();
+		if (directory != null) {
+			File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".html"));
+			if (files == null || files.length == 0)
+				throw new IOException("No .html pages in " + directory);
+			Arrays.sort(files);
+			for (File file : files)
+				pages.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			return pages;
+		}
+		for (int page = 1; page <= SYNTHETIC_PAGES; page++)
+			pages.add(syntheticPage(page, LISTINGS_PER_PAGE));
+		return pages;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param page
+	 * @param listings
+	 * @return an OLX shaped result page
+	 */
+	static String syntheticPage(int page, int listings) {
+
+		StringBuilder html = new StringBuilder(256 * 1024);
+		html.append("<!DOCTYPE html><html><head><title>Apartamente de inchiriat</title>");
+		for (int i = 0; i < 20; i++)
+			html.append("<script>var tracking").append(i).append(" = {\"page\": ").append(page).append(", \"slot\": ").append(i)
+					.append("}; function f").append(i).append("() { return tracking").append(i).append("; }</script>");
+		html.append("</head><body><div id=\"header\">");
+		appendFiller(html, 200);
+		html.append("</div><section id=\"body-container\"><table id=\"offers_table\" class=\"fixed offers breakword\"><tbody>");
+		for (int i = 0; i < listings; i++)
+			appendCard(html, listingId(page, i), i);
+		html.append("</tbody></table><div class=\"pager rel clr\">");
+		for (int i = 1; i <= 25; i++)
+			html.append("<span class=\"item\"><a class=\"block br3\" href=\"?page=").append(i).append("\"><span>").append(i)
+					.append("</span></a></span>");
+		html.append("<span class=\"fbold next\"><a href=\"?page=").append(page + 1)
+				.append("\"><span>Urmatoarele anunturi</span></a></span></div></section><div id=\"footer\">");
+		appendFiller(html, 600);
+		html.append("</div></body></html>");
+		return html.toString();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param page
+	 * @param index
+	 * @return the OLX style ID of a synthetic listing
+	 */
+	static String listingId(int page, int index) {
+
+		return "b" + Integer.toString(page * 1000 + index, 36) + "Q";
+	}
+
+	private static void appendCard(StringBuilder html, String id, int index) {
+
+		String url = "https://www.olx.ro/oferta/garsoniera-zona-centrala-ID" + id + ".html#a1b2c3";
+		html.append("<tr class=\"wrap\"><td class=\"offer\"><table data-id=\"").append(id)
+				.append("\" class=\"fixed breakword\"><tbody><tr><td rowspan=\"2\" class=\"w145\"><a href=\"").append(url)
+				.append("\" class=\"thumb\"><img class=\"fleft\" src=\"https://img.olx.ro/").append(id)
+				.append(".jpg\" alt=\"\"></a></td><td valign=\"top\" class=\"title-cell\"><h3 class=\"lheight22 margintop5\"><a href=\"")
+				.append(url).append("\" class=\"marginright5 link linkWithHash detailsLink\"><strong>Garsoniera zona centrala ").append(index)
+				.append("</strong></a></h3><p class=\"color-9 lheight16 margintop5\"><small class=\"breadcrumb x-normal\">")
+				.append("<span>Apartamente - Garsoniere de inchiriat &raquo; Garsoniere</span></small></p></td>")
+				.append("<td width=\"170\" class=\"wwnormal tright td-price\"><div class=\"space inlblk rel\"><p class=\"price\"><strong>")
+				.append(150 + index * 5).append(" \u20ac</strong></p></div></td></tr><tr><td valign=\"bottom\" class=\"bottom-cell\">")
+				.append("<div class=\"space rel\"><p class=\"color-9 lheight16 marginbott5\"><small class=\"breadcrumb x-normal\">")
+				.append("<span><i data-icon=\"location-filled\"></i>Timisoara</span></small></p>")
+				.append("<p class=\"color-9 lheight16 marginbott5 x-normal\"><i data-icon=\"clock\"></i>")
+				.append(index % 3 == 0 ? "Ieri" : "Azi").append(" ").append(10 + index % 12).append(":").append(10 + index % 50)
+				.append("</p></div></td></tr></tbody></table></td></tr>");
+	}
+
+	private static void appendFiller(StringBuilder html, int links) {
+
+		for (int i = 0; i < links; i++)
+			html.append("<li><a href=\"https://www.olx.ro/categorie-").append(i).append("/\" class=\"link\">Categorie ").append(i)
+					.append("</a></li>");
+	}
+}
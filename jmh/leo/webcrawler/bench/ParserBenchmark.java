@@ -0,0 +1,67 @@
+package leo.webcrawler.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import leo.webcrawler.bean.PostedDateParser;
+import leo.webcrawler.bean.PriceParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The purpose of this class is to measure the parsing every extracted
+ * listing goes through: its price and its posting date.
+ *
+ * @author leoky
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	private final String[] prices = { "150 \u20ac", "1.200 lei", "2 500,50 RON", "$ 300", "Negociabil", "350 EUR Negociabil" };
+	private final String[] dates = { "Azi 12:34", "Ieri 09:10", "12 oct", "3 ian 2017 08:05", "Astazi 23:59" };
+	private final long observedAt = 1476000000000L;
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public long parsePrices() {
+
+		long sum = 0;
+		for (String price : prices)
+			sum += PriceParser.parseCents(price) + (PriceParser.parseCurrency(price) == null ? 0 : 1);
+		return sum;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public long parseDates() {
+
+		long sum = 0;
+		for (String date : dates)
+			sum += PostedDateParser.parse(date, observedAt);
+		return sum;
+	}
+}
@@ -0,0 +1,49 @@
+package leo.webcrawler.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import leo.webcrawler.url.RentUrlBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The purpose of this class is to measure building the address of a watched
+ * query with every criteria set.
+ *
+ * @author leoky
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RentUrlBuilderBenchmark {
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public String buildAddress() {
+
+		RentUrlBuilder builder = new RentUrlBuilder("http://olx.ro/imobiliare/apartamente-garsoniere-de-inchiriat/");
+		builder.addRoomCriteria("1");
+		builder.addLocation("timisoara");
+		builder.addPriceFrom("50");
+		builder.addPriceUntil("170");
+		builder.addSurfaceFrom("20");
+		builder.addSurfaceUntil("60");
+		builder.addSource(RentUrlBuilder.privateType);
+		return builder.getAddressAsString();
+	}
+}
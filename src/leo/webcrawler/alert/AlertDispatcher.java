@@ -0,0 +1,193 @@
+package leo.webcrawler.alert;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leo.webcrawler.bean.ListingKey;
+import leo.webcrawler.diff.ListingEvent;
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.MetricsRegistry;
+
+/**
+ *
+ * The purpose of this class is to take alerting off the crawl threads. The
+ * crawler publishes listing events and returns at once; every sink has its
+ * own bounded queue and worker thread, so a dialog waiting for a click or a
+ * slow mail server only holds back its own sink. A worker waits a short while
+ * after the first event so that events arriving together are delivered as
+ * one batch, with repeated events of a listing coalesced into one: a new
+ * listing stays new with its latest version, and successive price changes
+ * become one change from the first old price to the latest one. When a queue
+ * is full new events are dropped for that sink and counted.
+ *
+ * @author leoky
+ *
+ */
+public class AlertDispatcher {
+
+	private final int queueCapacity;
+	private final int maxBatch;
+	private final long coalesceMillis;
+	private final List<SinkWorker> workers;
+	private final AtomicLong dropped;
+
+	/**
+	 *
+	 * @param queueCapacity
+	 *            the number of events waiting for one sink
+	 * @param maxBatch
+	 *            the largest batch given to a sink
+	 * @param coalesceMillis
+	 *            how long a worker waits for more events after the first
+	 */
+	public AlertDispatcher(int queueCapacity, int maxBatch, long coalesceMillis) {
+
+		this.queueCapacity = queueCapacity;
+		this.maxBatch = maxBatch;
+		this.coalesceMillis = coalesceMillis;
+		this.workers = new CopyOnWriteArrayList<SinkWorker>();
+		this.dropped = new AtomicLong();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to add a sink and start its worker
+	 *
+	 * @param sink
+	 */
+	public void addSink(AlertSink sink) {
+
+		SinkWorker worker = new SinkWorker(sink);
+		workers.add(worker);
+		worker.start();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to hand listing events to every sink
+	 * without waiting for any of them
+	 *
+	 * @param events
+	 */
+	public void publish(List<ListingEvent> events) {
+
+		for (SinkWorker worker : workers) {
+			for (ListingEvent event : events) {
+				if (!worker.queue.offer(event))
+					dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of events waiting in all sink queues
+	 */
+	public int getQueueDepth() {
+
+		int depth = 0;
+		for (SinkWorker worker : workers)
+			depth += worker.queue.size();
+		return depth;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of events dropped because a sink queue was full
+	 */
+	public long getDropped() {
+
+		return dropped.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop the workers; events still queued
+	 * are not delivered
+	 */
+	public void shutdown() {
+
+		for (SinkWorker worker : workers)
+			worker.interrupt();
+	}
+
+	/**
+	 * The queue and thread of one sink
+	 */
+	private class SinkWorker extends Thread {
+
+		private final AlertSink sink;
+		private final BlockingQueue<ListingEvent> queue;
+
+		private SinkWorker(AlertSink sink) {
+
+			super("alert-" + sink.getClass().getSimpleName());
+			setDaemon(true);
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<ListingEvent>(queueCapacity);
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				while (!isInterrupted()) {
+					List<ListingEvent> batch = nextBatch();
+					try {
+						sink.deliver(batch);
+					}
+					catch (InterruptedException e) {
+						throw e;
+					}
+					catch (Exception e) {
+						MetricsRegistry.getInstance().countError("alert", e);
+						EventLog.getInstance().error("alert_sink_failed", e).field("sink", getName()).field("events", batch.size()).log();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				// shut down
+			}
+		}
+
+		private List<ListingEvent> nextBatch() throws InterruptedException {
+
+			Map<ListingKey, ListingEvent> batch = new LinkedHashMap<ListingKey, ListingEvent>();
+			ListingEvent first = queue.take();
+			batch.put(first.getListing().getKey(), first);
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+			while (batch.size() < maxBatch) {
+				long remaining = deadline - System.nanoTime();
+				ListingEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+				if (next == null)
+					break;
+				ListingKey key = next.getListing().getKey();
+				batch.put(key, coalesce(batch.remove(key), next));
+			}
+			return new ArrayList<ListingEvent>(batch.values());
+		}
+
+		/**
+		 * The earlier event keeps its type and old version, the later one
+		 * brings the current version
+		 */
+		private ListingEvent coalesce(ListingEvent earlier, ListingEvent later) {
+
+			if (earlier == null)
+				return later;
+			return new ListingEvent(earlier.getType(), later.getListing(), earlier.getPrevious());
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package leo.webcrawler.alert;
+
+import java.util.List;
+
+import leo.webcrawler.diff.ListingEvent;
+
+/**
+ *
+ * The purpose of this interface is to render new listings and price changes
+ * somewhere: a window, the console, an email. Sinks are called from their own
+ * worker thread, never from a crawl thread.
+ *
+ * @author leoky
+ *
+ */
+public interface AlertSink {
+
+	/**
+	 *
+	 * The purpose of this method is to render one batch of listing events
+	 *
+	 * @param events
+	 *            {@link ListingEvent.Type#NEW} and
+	 *            {@link ListingEvent.Type#PRICE_CHANGED} events, the previous
+	 *            version of a price change telling the old price
+	 * @throws Exception
+	 *             if the batch could not be rendered; it is reported and
+	 *             dropped
+	 */
+	void deliver(List<ListingEvent> events) throws Exception;
+}
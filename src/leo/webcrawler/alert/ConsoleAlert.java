@@ -0,0 +1,26 @@
+package leo.webcrawler.alert;
+
+import java.util.List;
+
+import leo.webcrawler.diff.ListingEvent;
+
+/**
+ *
+ * The purpose of this class is to print new listings and price changes on
+ * the console
+ *
+ * @author leoky
+ *
+ */
+public class ConsoleAlert implements AlertSink {
+
+	@Override
+	public void deliver(List<ListingEvent> events) {
+
+		for (ListingEvent e : events) {
+			if (e.getType() == ListingEvent.Type.PRICE_CHANGED)
+				System.out.println("Pret schimbat: " + e.getPrevious().getPrice() + " -> " + e.getListing().getPrice());
+			System.out.println(e.getListing() + "-----------------\n");
+		}
+	}
+}
@@ -0,0 +1,444 @@
+package leo.webcrawler.alert;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.diff.ListingEvent;
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.Counter;
+import leo.webcrawler.metrics.MetricsRegistry;
+
+/**
+ *
+ * The purpose of this class is to mail new listings and price changes as
+ * periodic digests instead of one message per listing. Events are buffered
+ * until the flush size is reached or the flush interval has passed since the
+ * oldest buffered event. The buffer is bounded: while the mail server cannot
+ * be reached the oldest events are dropped and counted. One mail session and
+ * one connected SMTP transport are reused for all digests; a failed send
+ * reconnects and is retried with a growing pause, and a digest that still
+ * fails goes back to the buffer for the next flush; on close it is counted
+ * as dropped instead. Only one digest is sent
+ * at a time, but the buffer is never locked while sending or pausing, so
+ * alerts keep being accepted meanwhile.
+ *
+ * @author leoky
+ *
+ */
+public class EmailAlert implements AlertSink {
+
+	private static final Counter DROPPED = MetricsRegistry.getInstance().counter("rentwebcrawler_alert_mail_dropped_total",
+			"Events dropped because the email digest buffer was full");
+
+	private final String host;
+	private final int port;
+	private final InternetAddress from;
+	private final InternetAddress[] to;
+	private String username;
+	private String password;
+	private boolean startTls;
+	private int flushSize = 100;
+	private long flushInterval = 1000 * 60 * 10;
+	private int maxPending = 1000;
+	private int maxRetries = 3;
+	private long retryBackoff = 1000 * 5;
+
+	private Session session;
+	private Transport transport;
+	private ScheduledExecutorService flushTimer;
+	private final ReentrantLock sending;
+	private final ArrayDeque<ListingEvent> pending;
+	private long oldestPending;
+	private boolean closed;
+
+	/**
+	 *
+	 * @param host
+	 *            the SMTP server
+	 * @param port
+	 * @param from
+	 * @param to
+	 *            one or more comma separated recipients
+	 * @throws IllegalArgumentException
+	 *             if the host or an address is missing or malformed
+	 */
+	public EmailAlert(String host, int port, String from, String to) {
+
+		if (host == null || from == null || to == null)
+			throw new IllegalArgumentException("The SMTP host, the sender and the recipients are required");
+		try {
+			this.from = new InternetAddress(from, true);
+			this.to = InternetAddress.parse(to, true);
+		}
+		catch (AddressException e) {
+			throw new IllegalArgumentException("Invalid email address: " + e.getMessage(), e);
+		}
+		if (this.to.length == 0)
+			throw new IllegalArgumentException("No recipient in " + to);
+		this.host = host;
+		this.port = port;
+		this.sending = new ReentrantLock();
+		this.pending = new ArrayDeque<ListingEvent>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to log in to the SMTP server before
+	 * sending
+	 *
+	 * @param username
+	 * @param password
+	 */
+	public void setCredentials(String username, String password) {
+
+		this.username = username;
+		this.password = password;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param startTls
+	 */
+	public void setStartTls(boolean startTls) {
+
+		this.startTls = startTls;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param flushSize
+	 *            the number of buffered events that triggers a digest, and
+	 *            the most events one digest holds
+	 */
+	public void setFlushSize(int flushSize) {
+
+		this.flushSize = flushSize;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param flushInterval
+	 *            the longest an event stays buffered, in milliseconds
+	 */
+	public void setFlushInterval(long flushInterval) {
+
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param maxPending
+	 *            the most events buffered; the oldest are dropped beyond it
+	 */
+	public synchronized void setMaxPending(int maxPending) {
+
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param maxRetries
+	 * @param retryBackoff
+	 *            the pause before the first retry, doubled on every retry, in
+	 *            milliseconds
+	 */
+	public void setRetries(int maxRetries, long retryBackoff) {
+
+		this.maxRetries = maxRetries;
+		this.retryBackoff = retryBackoff;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to create the mail session and start the
+	 * timer that sends digests when the flush interval passes
+	 */
+	public synchronized void start() {
+
+		Properties properties = new Properties();
+		properties.put("mail.smtp.host", host);
+		properties.put("mail.smtp.port", String.valueOf(port));
+		properties.put("mail.smtp.auth", String.valueOf(username != null));
+		properties.put("mail.smtp.starttls.enable", String.valueOf(startTls));
+		properties.put("mail.smtp.connectiontimeout", "10000");
+		properties.put("mail.smtp.timeout", "10000");
+		session = Session.getInstance(properties);
+
+		long tick = Math.max(1000, flushInterval / 10);
+		flushTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "email-alert-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flushTimer.scheduleWithFixedDelay(this::flushOnTimer, tick, tick, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void deliver(List<ListingEvent> events) {
+
+		synchronized (this) {
+			if (pending.isEmpty())
+				oldestPending = System.currentTimeMillis();
+			pending.addAll(events);
+			dropOverflow();
+		}
+		flush(false);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to send what is still buffered, trying
+	 * every digest once, and close the transport. The events of a digest that
+	 * cannot be sent are counted as dropped.
+	 */
+	public void close() {
+
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		if (flushTimer != null)
+			flushTimer.shutdown();
+		sending.lock();
+		try {
+			sendDue(true);
+			closeTransport();
+		}
+		finally {
+			sending.unlock();
+		}
+	}
+
+	/**
+	 * An exception escaping a scheduled task would cancel the timer for good
+	 */
+	private void flushOnTimer() {
+
+		try {
+			flush(false);
+		}
+		catch (RuntimeException e) {
+			MetricsRegistry.getInstance().countError("alert", e);
+			EventLog.getInstance().error("alert_mail_flush_failed", e).log();
+		}
+	}
+
+	/**
+	 * Sends the due digests unless another thread already is, which then
+	 * sends these too
+	 */
+	private void flush(boolean force) {
+
+		if (!sending.tryLock())
+			return;
+		try {
+			sendDue(force);
+		}
+		finally {
+			sending.unlock();
+		}
+	}
+
+	/**
+	 * Takes digests out of the buffer while it is due and sends them; a
+	 * digest that cannot be sent goes back to the front of the buffer, unless
+	 * forced by close, which goes on with the next digest
+	 */
+	private void sendDue(boolean force) {
+
+		while (true) {
+			List<ListingEvent> digest = new ArrayList<ListingEvent>();
+			long digestSince;
+			synchronized (this) {
+				if (pending.isEmpty()
+						|| !(force || pending.size() >= flushSize || System.currentTimeMillis() - oldestPending >= flushInterval))
+					return;
+				while (digest.size() < flushSize && !pending.isEmpty())
+					digest.add(pending.pollFirst());
+				digestSince = oldestPending;
+				oldestPending = System.currentTimeMillis();
+			}
+
+			boolean sent = false;
+			try {
+				sent = sendWithRetries(digest);
+			}
+			finally {
+				if (!sent && force)
+					DROPPED.add(digest.size());
+				else if (!sent)
+					putBack(digest, digestSince);
+			}
+			if (!sent && !force)
+				return;
+		}
+	}
+
+	private synchronized void putBack(List<ListingEvent> digest, long digestSince) {
+
+		for (int i = digest.size() - 1; i >= 0; i--)
+			pending.addFirst(digest.get(i));
+		oldestPending = Math.min(oldestPending, digestSince);
+		dropOverflow();
+	}
+
+	private void dropOverflow() {
+
+		while (pending.size() > maxPending) {
+			pending.pollFirst();
+			DROPPED.increment();
+		}
+	}
+
+	private boolean sendWithRetries(List<ListingEvent> digest) {
+
+		long backoff = retryBackoff;
+		for (int attempt = 0;; attempt++) {
+			try {
+				send(digest);
+				return true;
+			}
+			catch (MessagingException e) {
+				closeTransport();
+				if (attempt >= maxRetries || isClosed()) {
+					EventLog.getInstance().error("alert_mail_failed", e).field("events", digest.size()).field("attempts", attempt + 1).log();
+					return false;
+				}
+			}
+			if (!pause(backoff))
+				return false;
+			backoff *= 2;
+		}
+	}
+
+	/**
+	 * Waits before a retry; waiting releases the buffer, and close cuts the
+	 * wait short
+	 *
+	 * @return false if closed or interrupted meanwhile
+	 */
+	private synchronized boolean pause(long millis) {
+
+		long deadline = System.currentTimeMillis() + millis;
+		try {
+			for (long left = millis; left > 0 && !closed; left = deadline - System.currentTimeMillis())
+				wait(left);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !closed;
+	}
+
+	private synchronized boolean isClosed() {
+
+		return closed;
+	}
+
+	private void send(List<ListingEvent> digest) throws MessagingException {
+
+		if (session == null)
+			throw new IllegalStateException("EmailAlert was not started");
+
+		int newListings = 0;
+		StringBuilder body = new StringBuilder();
+		for (ListingEvent event : digest) {
+			if (event.getType() != ListingEvent.Type.PRICE_CHANGED) {
+				appendListing(body, event, newListings == 0 ? "ANUNTURI NOI" : null);
+				newListings++;
+			}
+		}
+		int priceChanges = 0;
+		for (ListingEvent event : digest) {
+			if (event.getType() == ListingEvent.Type.PRICE_CHANGED) {
+				appendListing(body, event, priceChanges == 0 ? "PRETURI SCHIMBATE" : null);
+				priceChanges++;
+			}
+		}
+
+		MimeMessage message = new MimeMessage(session);
+		message.setFrom(from);
+		message.setRecipients(Message.RecipientType.TO, to);
+		message.setSubject("Alerta chirie: " + subjectOf(newListings, priceChanges), "UTF-8");
+		message.setText(body.toString(), "UTF-8");
+		message.saveChanges();
+
+		if (transport == null || !transport.isConnected()) {
+			transport = session.getTransport("smtp");
+			transport.connect(host, port, username, password);
+		}
+		transport.sendMessage(message, message.getAllRecipients());
+	}
+
+	/**
+	 * One listing as a few labelled lines, under a section heading when one
+	 * is given
+	 */
+	private static void appendListing(StringBuilder body, ListingEvent event, String heading) {
+
+		if (heading != null)
+			body.append(body.length() == 0 ? "" : "\n").append(heading).append("\n\n");
+		ExtractedData listing = event.getListing();
+		body.append(listing.getTitle()).append('\n');
+		if (event.getType() == ListingEvent.Type.PRICE_CHANGED)
+			body.append("Pret: ").append(textOf(event.getPrevious().getPrice())).append(" -> ").append(textOf(listing.getPrice())).append('\n');
+		else
+			body.append("Pret: ").append(textOf(listing.getPrice())).append('\n');
+		if (listing.getData() != null)
+			body.append("Publicat: ").append(listing.getData()).append('\n');
+		body.append(listing.getUrl()).append("\n\n");
+	}
+
+	private static String subjectOf(int newListings, int priceChanges) {
+
+		String listings = newListings == 1 ? "1 anunt nou" : newListings + " anunturi noi";
+		String prices = priceChanges == 1 ? "1 pret schimbat" : priceChanges + " preturi schimbate";
+		if (priceChanges == 0)
+			return listings;
+		return newListings == 0 ? prices : listings + ", " + prices;
+	}
+
+	private static String textOf(String price) {
+
+		return price == null ? "-" : price;
+	}
+
+	private void closeTransport() {
+
+		if (transport == null)
+			return;
+		try {
+			transport.close();
+		}
+		catch (MessagingException e) {
+			// the connection is being dropped anyway
+		}
+		transport = null;
+	}
+}
@@ -5,19 +5,82 @@ import java.awt.Desktop;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.net.URI;
+import java.util.List;
 
+import javax.swing.BoxLayout;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
 
-public class VisualAlert extends JFrame {
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.diff.ListingEvent;
+
+/**
+ *
+ * The purpose of this class is to show new listings and price changes as
+ * clickable links in a window that does not block anybody: the window is
+ * built and listings are added on the Swing thread, and the window is simply
+ * brought to front. Only the latest listings are kept in the window.
+ *
+ * @author leoky
+ *
+ */
+public class VisualAlert implements AlertSink {
+
+	/** the most listings shown; older ones are taken out of the window */
+	public static final int MAX_LISTINGS = 200;
+
+	private JFrame frame;
+	private JPanel panel;
+
+	/**
+	 *
+	 */
+	public VisualAlert() {
+
+		SwingUtilities.invokeLater(this::createFrame);
+	}
+
+	@Override
+	public void deliver(final List<ListingEvent> events) {
+
+		SwingUtilities.invokeLater(() -> showListings(events));
+	}
+
+	private void createFrame() {
+
+		frame = new JFrame("Alerta chirie");
+		panel = new JPanel();
+		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		frame.add(new JScrollPane(panel));
+		frame.setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+		frame.setSize(600, 400);
+	}
+
+	private void showListings(List<ListingEvent> events) {
+
+		for (ListingEvent event : events) {
+			ExtractedData listing = event.getListing();
+			String price = event.getType() == ListingEvent.Type.PRICE_CHANGED
+					? "pret schimbat " + event.getPrevious().getPrice() + " -> " + listing.getPrice() : listing.getPrice();
+			JLabel website = new JLabel();
+			setLink(website, listing.getUrl().toExternalForm(), listing.getTitle() + " - " + price + " - " + listing.getData());
+			panel.add(website, 0);
+		}
+		while (panel.getComponentCount() > MAX_LISTINGS)
+			panel.remove(panel.getComponentCount() - 1);
+		panel.revalidate();
+		panel.repaint();
+		frame.setVisible(true);
+		frame.toFront();
+	}
 
-	private static final long serialVersionUID = 1L;
-	private JPanel panel; 
-	
 	private void setLink(JLabel website, final String url, String text) {
 
-		website.setText("<html> Website : <a href=\"\">" + text + "</a></html>");
+		website.setText("<html> Website : <a href=\"\">" + escapeHtml(text) + "</a></html>");
 		website.setCursor(new Cursor(Cursor.HAND_CURSOR));
 		website.addMouseListener(new MouseAdapter() {
 
@@ -33,4 +96,33 @@ public class VisualAlert extends JFrame {
 			}
 		});
 	}
+
+	/**
+	 * Listing text comes from the site and must not be read as markup by the
+	 * label
+	 */
+	private static String escapeHtml(String text) {
+
+		StringBuilder escaped = new StringBuilder(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '&':
+					escaped.append("&amp;");
+					break;
+				case '<':
+					escaped.append("&lt;");
+					break;
+				case '>':
+					escaped.append("&gt;");
+					break;
+				case '"':
+					escaped.append("&quot;");
+					break;
+				default:
+					escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
 }
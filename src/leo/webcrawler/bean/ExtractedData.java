@@ -5,7 +5,11 @@ import java.net.URL;
 
 /**
  * 
- * The purpose of this class is
+ * The purpose of this class is to hold one listing. Listings are identified
+ * by their {@link ListingKey}, so hashing and comparing them never goes
+ * through java.net.URL. The price text is parsed once, when it is set, into
+ * an amount in hundredths and a currency code kept next to the raw text, and
+ * the posting date text is parsed the same way into epoch milliseconds.
  * 
  * @author leoky
  *
@@ -14,8 +18,13 @@ public class ExtractedData {
 
 	private String title;
 	private URL url;
+	private ListingKey key;
 	private String price;
+	private long priceCents = PriceParser.NO_AMOUNT;
+	private String currency;
+	private boolean negotiable;
 	private String data;
+	private long postedAt = PostedDateParser.NO_DATE;
 	
 	/**
 	 * 
@@ -27,6 +36,7 @@ public class ExtractedData {
 		
 		this.title = title;
 		this.url = new URL(urlRepresentation);
+		this.key = ListingKey.of(urlRepresentation);
 	}
 
 	/**
@@ -71,6 +81,18 @@ public class ExtractedData {
 	public void setUrl(URL url) {
 	
 		this.url = url;
+		this.key = ListingKey.of(url.toExternalForm());
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return the key identifying this listing
+	 */
+	public ListingKey getKey() {
+	
+		return key;
 	}
 	
 	/**
@@ -93,6 +115,54 @@ public class ExtractedData {
 	public void setPrice(String price) {
 	
 		this.price = price;
+		this.priceCents = PriceParser.parseCents(price);
+		this.currency = PriceParser.parseCurrency(price);
+		this.negotiable = PriceParser.isNegotiable(price);
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return the price in hundredths of its currency, or
+	 *         {@link PriceParser#NO_AMOUNT} when the price has no number
+	 */
+	public long getPriceCents() {
+	
+		return priceCents;
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return true if the price text holds a number
+	 */
+	public boolean hasPriceAmount() {
+	
+		return priceCents != PriceParser.NO_AMOUNT;
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return the ISO code of the price currency, or null if unknown
+	 */
+	public String getCurrency() {
+	
+		return currency;
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public boolean isNegotiable() {
+	
+		return negotiable;
 	}
 
 	/**
@@ -114,19 +184,51 @@ public class ExtractedData {
 	 */
 	public void setData(String data) {
 	
+		setData(data, System.currentTimeMillis());
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is to set the posting date text of a listing
+	 * crawled at another time than now, since "Azi" and "Ieri" are relative
+	 *
+	 * @param data
+	 * @param observedAt
+	 *            when the listing was crawled, in epoch milliseconds
+	 */
+	public void setData(String data, long observedAt) {
+	
 		this.data = data;
+		this.postedAt = PostedDateParser.parse(data, observedAt);
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return when the listing was posted, in epoch milliseconds, or
+	 *         {@link PostedDateParser#NO_DATE} when the date is unknown
+	 */
+	public long getPostedAt() {
+	
+		return postedAt;
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is
+	 *
+	 * @return true if the posting date could be parsed
+	 */
+	public boolean hasPostedAt() {
+	
+		return postedAt != PostedDateParser.NO_DATE;
 	}
 
 	@Override
 	public int hashCode() {
 
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((data == null) ? 0 : data.hashCode());
-		result = prime * result + ((price == null) ? 0 : price.hashCode());
-		result = prime * result + ((title == null) ? 0 : title.hashCode());
-		result = prime * result + ((url == null) ? 0 : url.hashCode());
-		return result;
+		return key.hashCode();
 	}
 
 	@Override
@@ -139,31 +241,7 @@ public class ExtractedData {
 		if (getClass() != obj.getClass())
 			return false;
 		ExtractedData other = (ExtractedData) obj;
-		if (data == null) {
-			if (other.data != null)
-				return false;
-		}
-		else if (!data.equals(other.data))
-			return false;
-		if (price == null) {
-			if (other.price != null)
-				return false;
-		}
-		else if (!price.equals(other.price))
-			return false;
-		if (title == null) {
-			if (other.title != null)
-				return false;
-		}
-		else if (!title.equals(other.title))
-			return false;
-		if (url == null) {
-			if (other.url != null)
-				return false;
-		}
-		else if (!url.equals(other.url))
-			return false;
-		return true;
+		return key.equals(other.key);
 	}
 
 	@Override
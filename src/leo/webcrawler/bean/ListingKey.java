@@ -0,0 +1,173 @@
+package leo.webcrawler.bean;
+
+import java.util.Locale;
+
+/**
+ *
+ * The purpose of this class is to identify a listing without going through
+ * java.net.URL. The address is canonicalized once (lower case scheme and
+ * host, no "www.", no query and no fragment) and the listing ID found in OLX
+ * style addresses ("...-IDabc12.html") is pulled out of it. Two keys are equal
+ * when they point to the same listing ID on the same host, or to the same
+ * canonical address when there is no ID. The hash code is computed once.
+ *
+ * @author leoky
+ *
+ */
+public final class ListingKey {
+
+	private static final String ID_MARKER = "-ID";
+	private static final String ID_SUFFIX = ".html";
+
+	private final String canonicalUrl;
+	private final String listingId;
+	private final String value;
+	private final int hash;
+
+	private ListingKey(String canonicalUrl, String host, String listingId) {
+
+		this.canonicalUrl = canonicalUrl;
+		this.listingId = listingId;
+		this.value = listingId == null ? canonicalUrl : host + ":" + listingId;
+		this.hash = value.hashCode();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to build the key of a listing address
+	 *
+	 * @param url
+	 * @return
+	 */
+	public static ListingKey of(String url) {
+
+		String canonicalUrl = canonicalize(url);
+		return new ListingKey(canonicalUrl, hostOf(canonicalUrl), listingIdOf(canonicalUrl));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to normalize a listing address so that
+	 * tracking parameters and anchors do not make the same listing look
+	 * different
+	 *
+	 * @param url
+	 * @return
+	 */
+	public static String canonicalize(String url) {
+
+		String trimmed = url.trim();
+		int end = trimmed.length();
+		int fragment = trimmed.indexOf('#');
+		if (fragment >= 0)
+			end = fragment;
+		int query = trimmed.indexOf('?');
+		if (query >= 0 && query < end)
+			end = query;
+
+		int schemeEnd = trimmed.indexOf("://");
+		if (schemeEnd < 0 || schemeEnd > end)
+			return trimmed.substring(0, end);
+
+		int hostStart = schemeEnd + 3;
+		int hostEnd = trimmed.indexOf('/', hostStart);
+		if (hostEnd < 0 || hostEnd > end)
+			hostEnd = end;
+
+		String host = trimmed.substring(hostStart, hostEnd).toLowerCase(Locale.ROOT);
+		if (host.startsWith("www."))
+			host = host.substring(4);
+
+		return trimmed.substring(0, schemeEnd).toLowerCase(Locale.ROOT) + "://" + host + trimmed.substring(hostEnd, end);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param canonicalUrl
+	 * @return the OLX listing ID of the address, or null if it has none
+	 */
+	public static String listingIdOf(String canonicalUrl) {
+
+		int suffix = canonicalUrl.lastIndexOf(ID_SUFFIX);
+		if (suffix < 0)
+			return null;
+		int marker = canonicalUrl.lastIndexOf(ID_MARKER, suffix);
+		if (marker < 0)
+			return null;
+		int start = marker + ID_MARKER.length();
+		if (start == suffix)
+			return null;
+		for (int i = start; i < suffix; i++) {
+			if (!Character.isLetterOrDigit(canonicalUrl.charAt(i)))
+				return null;
+		}
+		return canonicalUrl.substring(start, suffix);
+	}
+
+	private static String hostOf(String canonicalUrl) {
+
+		int schemeEnd = canonicalUrl.indexOf("://");
+		if (schemeEnd < 0)
+			return "";
+		int hostEnd = canonicalUrl.indexOf('/', schemeEnd + 3);
+		return hostEnd < 0 ? canonicalUrl.substring(schemeEnd + 3) : canonicalUrl.substring(schemeEnd + 3, hostEnd);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public String getCanonicalUrl() {
+
+		return canonicalUrl;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the listing ID, or null when the address does not carry one
+	 */
+	public String getListingId() {
+
+		return listingId;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the string the key is compared by
+	 */
+	public String getValue() {
+
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ListingKey))
+			return false;
+		ListingKey other = (ListingKey) obj;
+		return hash == other.hash && value.equals(other.value);
+	}
+
+	@Override
+	public String toString() {
+
+		return value;
+	}
+}
@@ -0,0 +1,176 @@
+package leo.webcrawler.bean;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ *
+ * The purpose of this class is to turn the posting date of a listing ("Azi
+ * 12:34", "Ieri 09:10", "12 oct", "12 oct 2016 08:05") into epoch
+ * milliseconds once, when the listing is extracted. "Azi" and "Ieri" are
+ * relative to the time the listing was observed and a day without a year is
+ * the latest such day not after it; the site shows Romanian local time. The
+ * text is read in place, without regular expressions or date formats, and the
+ * methods can be called from any thread.
+ *
+ * @author leoky
+ *
+ */
+public final class PostedDateParser {
+
+	public static final long NO_DATE = Long.MIN_VALUE;
+	public static final ZoneId ZONE = ZoneId.of("Europe/Bucharest");
+
+	private static final String[] MONTHS = { "ian", "feb", "mar", "apr", "mai", "iun", "iul", "aug", "sep", "oct", "noi", "dec" };
+
+	private PostedDateParser() {
+
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param text
+	 * @param observedAt
+	 *            when the text was crawled, in epoch milliseconds
+	 * @return when the listing was posted, in epoch milliseconds, or
+	 *         {@link #NO_DATE} when the text holds no date
+	 */
+	public static long parse(CharSequence text, long observedAt) {
+
+		if (text == null)
+			return NO_DATE;
+
+		int length = text.length();
+		int start = skipSpaces(text, 0);
+		int end = wordEnd(text, start);
+		if (end == start)
+			return NO_DATE;
+
+		LocalDate today = Instant.ofEpochMilli(observedAt).atZone(ZONE).toLocalDate();
+		LocalDate day;
+		if (isDigit(text.charAt(start))) {
+			int dayOfMonth = number(text, start, end);
+			start = skipSpaces(text, end);
+			end = wordEnd(text, start);
+			int month = monthOf(text, start, end);
+			if (dayOfMonth < 1 || month < 0)
+				return NO_DATE;
+
+			start = skipSpaces(text, end);
+			end = wordEnd(text, start);
+			int year = today.getYear();
+			boolean yearGiven = end - start == 4 && isDigit(text.charAt(start));
+			if (yearGiven) {
+				year = number(text, start, end);
+				start = skipSpaces(text, end);
+			}
+			try {
+				day = LocalDate.of(year, month + 1, dayOfMonth);
+			}
+			catch (DateTimeException e) {
+				return NO_DATE;
+			}
+			if (!yearGiven && day.isAfter(today))
+				day = day.minusYears(1);
+		}
+		else if (wordEquals(text, start, end, "azi") || wordEquals(text, start, end, "astazi") || wordEquals(text, start, end, "ast\u0103zi")) {
+			day = today;
+			start = skipSpaces(text, end);
+		}
+		else if (wordEquals(text, start, end, "ieri")) {
+			day = today.minusDays(1);
+			start = skipSpaces(text, end);
+		}
+		else {
+			return NO_DATE;
+		}
+
+		// an optional HH:mm, the start of the day otherwise
+		int hour = 0;
+		int minute = 0;
+		int colon = start;
+		while (colon < length && isDigit(text.charAt(colon)))
+			colon++;
+		if (colon > start && colon - start <= 2 && colon < length && text.charAt(colon) == ':') {
+			int minuteEnd = colon + 1;
+			while (minuteEnd < length && isDigit(text.charAt(minuteEnd)))
+				minuteEnd++;
+			if (minuteEnd - colon - 1 == 2) {
+				hour = number(text, start, colon);
+				minute = number(text, colon + 1, minuteEnd);
+				if (hour > 23 || minute > 59)
+					return NO_DATE;
+			}
+		}
+		return day.atTime(hour, minute).atZone(ZONE).toInstant().toEpochMilli();
+	}
+
+	private static int monthOf(CharSequence text, int start, int end) {
+
+		if (end - start < 3)
+			return -1;
+		for (int month = 0; month < MONTHS.length; month++) {
+			String name = MONTHS[month];
+			boolean matches = true;
+			for (int i = 0; i < 3 && matches; i++)
+				matches = Character.toLowerCase(text.charAt(start + i)) == name.charAt(i);
+			if (matches)
+				return month;
+		}
+		return -1;
+	}
+
+	private static boolean wordEquals(CharSequence text, int start, int end, String word) {
+
+		if (end - start != word.length())
+			return false;
+		for (int i = 0; i < word.length(); i++) {
+			if (Character.toLowerCase(text.charAt(start + i)) != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A word is a run of letters or a run of digits
+	 */
+	private static int wordEnd(CharSequence text, int start) {
+
+		int end = start;
+		if (end < text.length() && isDigit(text.charAt(end))) {
+			while (end < text.length() && isDigit(text.charAt(end)))
+				end++;
+		}
+		else {
+			while (end < text.length() && Character.isLetter(text.charAt(end)))
+				end++;
+		}
+		return end;
+	}
+
+	private static int skipSpaces(CharSequence text, int start) {
+
+		int index = start;
+		while (index < text.length() && (Character.isWhitespace(text.charAt(index)) || text.charAt(index) == '\u00a0'
+				|| text.charAt(index) == ',' || text.charAt(index) == '.'))
+			index++;
+		return index;
+	}
+
+	private static int number(CharSequence text, int start, int end) {
+
+		int value = 0;
+		for (int i = start; i < end && value < 100000; i++)
+			value = value * 10 + text.charAt(i) - '0';
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,140 @@
+package leo.webcrawler.bean;
+
+/**
+ *
+ * The purpose of this class is to turn the price text of a listing ("150 EUR",
+ * "1.200 lei", "2 500,50 RON", "Negociabil") into numbers once, when the
+ * listing is extracted. The first number of the text is the amount: dots,
+ * commas and spaces between digits are thousands separators, except a last
+ * comma or dot followed by one or two digits, which is the decimal separator.
+ * A number too large to be held in cents is no amount. The methods do not
+ * allocate and can be called from any thread.
+ *
+ * @author leoky
+ *
+ */
+public final class PriceParser {
+
+	public static final long NO_AMOUNT = Long.MIN_VALUE;
+
+	private static final long MAX_UNITS = (Long.MAX_VALUE - 99) / 100;
+
+	private PriceParser() {
+
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param text
+	 * @return the amount in hundredths of the currency, or {@link #NO_AMOUNT}
+	 *         when the text holds no number or one too large
+	 */
+	public static long parseCents(String text) {
+
+		if (text == null)
+			return NO_AMOUNT;
+
+		int length = text.length();
+		int start = 0;
+		while (start < length && !isDigit(text.charAt(start)))
+			start++;
+		if (start == length)
+			return NO_AMOUNT;
+
+		// the number runs while digits are only split by single separators
+		int end = start;
+		int lastSeparator = -1;
+		while (end < length) {
+			char c = text.charAt(end);
+			if (isDigit(c)) {
+				end++;
+			}
+			else if (isSeparator(c) && end + 1 < length && isDigit(text.charAt(end + 1))) {
+				lastSeparator = end;
+				end++;
+			}
+			else {
+				break;
+			}
+		}
+
+		int decimalSeparator = -1;
+		if (lastSeparator >= 0 && (text.charAt(lastSeparator) == ',' || text.charAt(lastSeparator) == '.') && end - lastSeparator - 1 <= 2)
+			decimalSeparator = lastSeparator;
+
+		long units = 0;
+		long cents = 0;
+		int decimals = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c))
+				continue;
+			if (decimalSeparator >= 0 && i > decimalSeparator) {
+				cents = cents * 10 + (c - '0');
+				decimals++;
+			}
+			else {
+				if (units > (MAX_UNITS - (c - '0')) / 10)
+					return NO_AMOUNT;
+				units = units * 10 + (c - '0');
+			}
+		}
+		if (decimals == 1)
+			cents *= 10;
+		return units * 100 + cents;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param text
+	 * @return the ISO code of the currency named in the text (EUR, RON, USD),
+	 *         or null
+	 */
+	public static String parseCurrency(String text) {
+
+		if (text == null)
+			return null;
+		if (text.indexOf('\u20ac') >= 0 || containsIgnoreCase(text, "eur"))
+			return "EUR";
+		if (containsIgnoreCase(text, "lei") || containsIgnoreCase(text, "ron"))
+			return "RON";
+		if (text.indexOf('$') >= 0 || containsIgnoreCase(text, "usd"))
+			return "USD";
+		return null;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param text
+	 * @return true if the price is marked as negotiable
+	 */
+	public static boolean isNegotiable(String text) {
+
+		return text != null && containsIgnoreCase(text, "negociabil");
+	}
+
+	private static boolean isDigit(char c) {
+
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isSeparator(char c) {
+
+		return c == '.' || c == ',' || c == ' ' || c == '\u00a0' || c == '\'';
+	}
+
+	private static boolean containsIgnoreCase(String text, String word) {
+
+		for (int i = 0; i + word.length() <= text.length(); i++) {
+			if (text.regionMatches(true, i, word, 0, word.length()))
+				return true;
+		}
+		return false;
+	}
+}
@@ -1,20 +1,51 @@
 package leo.webcrawler.connect;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.diff.SeenListingIndex;
+import leo.webcrawler.extract.ListingExtractor;
+import leo.webcrawler.extract.ResultPage;
+import leo.webcrawler.extract.SiteDefinition;
+import leo.webcrawler.extract.SiteDefinitions;
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.Counter;
+import leo.webcrawler.metrics.Histogram;
+import leo.webcrawler.metrics.MetricsRegistry;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
 
 public class Connector {
 
+	public static final int DEFAULT_MAX_PAGES = 25;
+	private static final int PAGE_BATCH = 3;
+
+	private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+	private static final Counter DOWNLOADED_BYTES = METRICS.counter("rentwebcrawler_downloaded_bytes_total",
+			"Body bytes received for result pages, before decompression");
+	private static final Counter EXTRACTED_LISTINGS = METRICS.counter("rentwebcrawler_extracted_listings_total",
+			"Listings extracted from parsed result pages");
+	private static final Histogram PARSE_DURATION = METRICS.histogram("rentwebcrawler_parse_duration_seconds",
+			"Time to parse the listing region of a page and extract its listings", Histogram.NANOSECONDS);
+	private static final Histogram PAGE_LISTINGS = METRICS.histogram("rentwebcrawler_page_listings",
+			"Listings extracted from one parsed result page", 1);
+
+	private int maxPages = DEFAULT_MAX_PAGES;
+	private final HttpClient httpClient;
+	private final SiteDefinitions sites;
+	private final ConcurrentMap<SiteDefinition, PageFetcher> pageFetchers;
+	private final ConcurrentMap<String, ResultPage> lastPages;
+	private final ConcurrentMap<String, Long> lastDeepCrawls;
 	private List<ExtractedData> previousData;
 	private List<ExtractedData> extractedData;
 	
@@ -22,95 +53,240 @@ public class Connector {
 	 * 
 	 */
 	public Connector() {
+		this(new HttpClient());
+	}
+	
+	/**
+	 * 
+	 * @param httpClient
+	 *            the client shared by all the queries and pages fetched
+	 */
+	public Connector(HttpClient httpClient) {
+		this(httpClient, SiteDefinitions.getInstance());
+	}
+	
+	/**
+	 * 
+	 * @param httpClient
+	 *            the client shared by all the queries and pages fetched
+	 * @param sites
+	 *            the rules used to read the pages of every site
+	 */
+	public Connector(HttpClient httpClient, SiteDefinitions sites) {
+		this.httpClient = httpClient;
+		this.sites = sites;
+		pageFetchers = new ConcurrentHashMap<SiteDefinition, PageFetcher>();
+		lastPages = new ConcurrentHashMap<String, ResultPage>();
+		lastDeepCrawls = new ConcurrentHashMap<String, Long>();
 		previousData = new ArrayList<ExtractedData>();
 		extractedData = new ArrayList<ExtractedData>();
 	}
 	
 	/**
 	 * 
-	 * The purpose of this method is
+	 * The purpose of this method is to crawl the given address and keep the
+	 * extracted listings in the current extracted data list
 	 *
 	 * @param formedURL
 	 */
 	public void extractLinks(String formedURL) {
 
-		DateFormat startDateFormat = new SimpleDateFormat("HH:mm:ss");
-		Date startDate = new Date();
-		
-		System.out.println("Started to crawl at " + startDateFormat.format(startDate));
+		EventLog.getInstance().info("crawl_start").field("url", formedURL).log();
 		
-		Document doc;
 		try {
 
-			int hashCounter = 0;
-			String previousLink = "";
-			doc = Jsoup.connect(formedURL).get();
-			Elements hrefs = doc.select("a");
-			Elements strongs = doc.select("strong");
-			Elements dates = doc.select("p");
-
-			//add desired links with their titles
-			for (int i = 0; i < hrefs.size(); i++) {
-				String attribute = hrefs.get(i).attr("href");
-				String text = new String(hrefs.get(i).text());
-
-				if (attribute.equals("#") && hashCounter < 17) {
-					hashCounter++;
-					continue;
-				}
-				if (hashCounter >= 17) {
-					if (previousLink.equals(attribute) && !attribute.equals("")) {
-						extractedData.add(new ExtractedData(text, attribute));
-						
-						if(text.contains("Urmatoarele anunturi"))
-							break;
-					}
-					
-					previousLink = attribute;
-				}
-			}
+			List<ExtractedData> listings = fetch(formedURL);
+			extractedData.addAll(listings);
 			
-			//add price
-			int dataIndex = 0;
-			for (int i = 0; i < strongs.size(); i++) {
-				if (strongs.get(i).text().equals(extractedData.get(dataIndex).getTitle())) {
-					i++;
-					ExtractedData currentData = extractedData.get(dataIndex);
-					currentData.setPrice(strongs.get(i).text());
-					dataIndex++;
+			EventLog.getInstance().info("crawl_end").field("url", formedURL).field("listings", listings.size()).log();
+		}
+		catch (IOException e) {
+			METRICS.countError("page", e);
+			EventLog.getInstance().error("page_failed", e).field("url", formedURL).log();
+		}
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is to download and parse one result page
+	 * into a fresh list. It does not touch the state of this connector, so it
+	 * can be called from several threads at once.
+	 *
+	 * @param formedURL
+	 * @return the listings found on the page
+	 * @throws IOException
+	 */
+	public List<ExtractedData> fetch(String formedURL) throws IOException {
+
+		return fetchPage(formedURL).getListings();
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is to download and parse one result page,
+	 * keeping the pager information next to the listings. Only the listing
+	 * region of the page is read and parsed. When the page did not change
+	 * since its last fetch the previously parsed page is returned and nothing
+	 * is parsed.
+	 *
+	 * @param formedURL
+	 * @return
+	 * @throws IOException
+	 */
+	public ResultPage fetchPage(String formedURL) throws IOException {
+
+		SiteDefinition site = sites.forUrl(formedURL);
+		ResultPage lastPage = lastPages.get(formedURL);
+		FetchResult result = pageFetcherOf(site).fetch(formedURL, lastPage != null);
+		String outcome = result.getStatus().name().toLowerCase(Locale.ROOT);
+		DOWNLOADED_BYTES.add(result.getBytesRead());
+		METRICS.counter("rentwebcrawler_page_fetches_total", "Page fetches by outcome: changed, not_modified or unchanged", "result",
+				outcome).increment();
+		if (result.isUnchanged()) {
+			EventLog.getInstance().info("fetch").field("url", formedURL).field("result", outcome).field("bytes", result.getBytesRead()).log();
+			return lastPage;
+		}
+
+		long parseStart = System.nanoTime();
+		Document doc = Jsoup.parse(result.getRegion(), formedURL);
+		ResultPage page = ListingExtractor.extractPage(doc.body(), site);
+		long parseNanos = System.nanoTime() - parseStart;
+		PARSE_DURATION.record(parseNanos);
+		PAGE_LISTINGS.record(page.getListings().size());
+		EXTRACTED_LISTINGS.add(page.getListings().size());
+		EventLog.getInstance().info("fetch").field("url", formedURL).field("result", outcome).field("bytes", result.getBytesRead())
+				.field("listings", page.getListings().size()).field("parse_micros", parseNanos / 1000).log();
+		lastPages.put(formedURL, page);
+		return page;
+	}
+
+	/**
+	 * 
+	 * The purpose of this method is to follow the pagination of a search.
+	 * Once the first page tells how many pages there are, the following ones
+	 * are fetched in parallel on the given executor. When the seen index is
+	 * empty every page is fetched (backfill), otherwise the crawl stops after
+	 * the first page whose listings were all seen before, so steady polling
+	 * usually costs one request. The index only remembers the listings it
+	 * keeps being shown, so on the first crawl of an address and then once per
+	 * renewal interval of the index every page is fetched again, and the
+	 * listings deep in the results are seen before they would be forgotten.
+	 *
+	 * @param formedURL
+	 * @param seenListings
+	 * @param executor
+	 *            runs the page fetches; it must not be used by tasks that
+	 *            wait on other pages
+	 * @return the listings of all fetched pages, in page order
+	 * @throws IOException
+	 *             if the first page could not be fetched
+	 */
+	public List<ExtractedData> fetchAllPages(String formedURL, SeenListingIndex seenListings, Executor executor) throws IOException {
+
+		long crawlStart = System.currentTimeMillis();
+		Long lastDeepCrawl = lastDeepCrawls.get(formedURL);
+		boolean deep = seenListings.isEmpty() || lastDeepCrawl == null
+				|| crawlStart - lastDeepCrawl >= seenListings.getRenewalInterval();
+		ResultPage firstPage = await(submitPage(formedURL, executor));
+		List<ExtractedData> listings = new ArrayList<ExtractedData>(firstPage.getListings());
+
+		int lastPage = Math.min(firstPage.getLastPage(), maxPages);
+		boolean done = !deep && allSeen(firstPage, seenListings);
+		boolean failed = false;
+		int nextPage = 2;
+		while (!done && nextPage <= lastPage) {
+			int batchEnd = deep ? lastPage : Math.min(lastPage, nextPage + PAGE_BATCH - 1);
+			List<Future<ResultPage>> batch = new ArrayList<Future<ResultPage>>();
+			for (int page = nextPage; page <= batchEnd; page++)
+				batch.add(submitPage(pageUrl(formedURL, sites.forUrl(formedURL).getPageParameter(), page), executor));
+			nextPage = batchEnd + 1;
+
+			for (Future<ResultPage> pending : batch) {
+				try {
+					ResultPage page = await(pending);
+					listings.addAll(page.getListings());
+					if (!deep && allSeen(page, seenListings))
+						done = true;
 				}
-			}
-			
-			//add spawn date
-			dataIndex = 0;
-			for (int i = 0; i < dates.size(); i++) {
-				if (dates.get(i).attr("class").equals("color-9 lheight16 marginbott5 x-normal")) {
-					ExtractedData currentData = extractedData.get(dataIndex);
-					currentData.setData(dates.get(i).text());
-					dataIndex++;
+				catch (IOException e) {
+					METRICS.countError("page", e);
+					EventLog.getInstance().error("page_failed", e).field("url", formedURL).log();
+					done = true;
+					failed = true;
 				}
 			}
-			
-			DateFormat endDateFormat = new SimpleDateFormat("HH:mm:ss");
-			Date endDate = new Date();
-			
-			System.out.println("Ended to crawl at " + endDateFormat.format(endDate) + "\n");
 		}
-		catch (IOException e) {
-			e.printStackTrace();
+
+		// a deep crawl cut short is tried again on the next poll
+		if (deep && !failed) {
+			lastDeepCrawls.put(formedURL, crawlStart);
+			EventLog.getInstance().info("deep_crawl").field("url", formedURL).field("pages", lastPage).field("listings", listings.size())
+					.log();
 		}
+		return listings;
 	}
 
 	/**
 	 * 
+	 * The purpose of this method is
+	 *
+	 * @param maxPages
+	 *            the highest page number that will be followed
 	 */
-	public void displayExtractedData(){
-		
-		for (ExtractedData e: extractedData) {
-			System.out.println(e+"-----------------\n");
+	public void setMaxPages(int maxPages) {
+
+		this.maxPages = maxPages;
+	}
+
+	private PageFetcher pageFetcherOf(SiteDefinition site) {
+
+		PageFetcher pageFetcher = pageFetchers.get(site);
+		if (pageFetcher == null) {
+			PageFetcher created = new PageFetcher(httpClient, new ListingRegionReader(site.getRegionStart(), site.getRegionEnd()));
+			pageFetcher = pageFetchers.putIfAbsent(site, created);
+			if (pageFetcher == null)
+				pageFetcher = created;
 		}
+		return pageFetcher;
 	}
-	
+
+	private Future<ResultPage> submitPage(final String pageURL, Executor executor) {
+
+		FutureTask<ResultPage> task = new FutureTask<ResultPage>(() -> fetchPage(pageURL));
+		executor.execute(task);
+		return task;
+	}
+
+	private static ResultPage await(Future<ResultPage> pending) throws IOException {
+
+		try {
+			return pending.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a page", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static boolean allSeen(ResultPage page, SeenListingIndex seenListings) {
+
+		for (ExtractedData listing : page.getListings()) {
+			if (!seenListings.contains(listing))
+				return false;
+		}
+		return true;
+	}
+
+	private static String pageUrl(String formedURL, String pageParameter, int page) {
+
+		return formedURL + (formedURL.indexOf('?') < 0 ? "?" : "&") + pageParameter + "=" + page;
+	}
+
 	/**
 	 * 
 	 * The purpose of this method is
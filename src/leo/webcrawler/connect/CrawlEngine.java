@@ -0,0 +1,221 @@
+package leo.webcrawler.connect;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.diff.SeenListingIndex;
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.MetricsRegistry;
+
+/**
+ *
+ * The purpose of this class is to crawl several search addresses at once.
+ * Every address is fetched on its own task, the number of requests running
+ * against one host is capped and the whole sweep takes about as long as the
+ * slowest page. When a seen index is given the pagination of every search is
+ * followed as well; the pages go through a separate pool so that a search
+ * waiting on its pages never starves them.
+ *
+ * @author leoky
+ *
+ */
+public class CrawlEngine {
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 16;
+	public static final int DEFAULT_HOST_CONCURRENCY = 4;
+
+	private final Connector connector;
+	private final ExecutorService queryExecutor;
+	private final ExecutorService pageExecutor;
+	private final Semaphore globalPermits;
+	private final int hostConcurrency;
+	private final ConcurrentMap<String, Semaphore> hostPermits;
+
+	/**
+	 *
+	 * @param connector
+	 */
+	public CrawlEngine(Connector connector) {
+
+		this(connector, DEFAULT_MAX_CONCURRENCY, DEFAULT_HOST_CONCURRENCY);
+	}
+
+	/**
+	 *
+	 * @param connector
+	 * @param maxConcurrency
+	 *            the maximum number of pages fetched at the same time
+	 * @param hostConcurrency
+	 *            the maximum number of pages fetched at the same time from one
+	 *            host
+	 */
+	public CrawlEngine(Connector connector, int maxConcurrency, int hostConcurrency) {
+
+		if (maxConcurrency < 1 || hostConcurrency < 1)
+			throw new IllegalArgumentException("Concurrency limits must be positive");
+
+		this.connector = connector;
+		this.queryExecutor = newExecutor(maxConcurrency, "crawl-query");
+		this.pageExecutor = newExecutor(maxConcurrency, "crawl-page");
+		this.globalPermits = new Semaphore(maxConcurrency);
+		this.hostConcurrency = hostConcurrency;
+		this.hostPermits = new ConcurrentHashMap<String, Semaphore>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to fetch and parse the first page of all
+	 * the given addresses concurrently
+	 *
+	 * @param formedURLs
+	 * @return the listings of every address, in the order they were given
+	 */
+	public Map<String, List<ExtractedData>> crawl(Collection<String> formedURLs) {
+
+		return crawl(formedURLs, null);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to fetch and parse all the given addresses
+	 * concurrently. A query that fails is reported and mapped to an empty
+	 * list, so one bad page does not spoil the whole sweep.
+	 *
+	 * @param formedURLs
+	 * @param seenListings
+	 *            when not null the pagination of every address is followed
+	 *            until a page holds only seen listings
+	 * @return the listings of every address, in the order they were given
+	 */
+	public Map<String, List<ExtractedData>> crawl(Collection<String> formedURLs, final SeenListingIndex seenListings) {
+
+		Map<String, Future<List<ExtractedData>>> pending = new LinkedHashMap<String, Future<List<ExtractedData>>>();
+		for (final String formedURL : formedURLs) {
+			if (!pending.containsKey(formedURL))
+				pending.put(formedURL, queryExecutor.submit(() -> seenListings == null ? fetchWithinLimits(formedURL)
+						: connector.fetchAllPages(formedURL, seenListings, limitedExecutor(formedURL))));
+		}
+
+		Map<String, List<ExtractedData>> results = new LinkedHashMap<String, List<ExtractedData>>();
+		for (Map.Entry<String, Future<List<ExtractedData>>> entry : pending.entrySet()) {
+			try {
+				results.put(entry.getKey(), entry.getValue().get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				results.put(entry.getKey(), Collections.<ExtractedData> emptyList());
+			}
+			catch (ExecutionException e) {
+				MetricsRegistry.getInstance().countError("query", e.getCause());
+				EventLog.getInstance().error("query_failed", e.getCause()).field("url", entry.getKey()).log();
+				results.put(entry.getKey(), Collections.<ExtractedData> emptyList());
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop the worker threads once the
+	 * engine is no longer needed
+	 */
+	public void shutdown() {
+
+		queryExecutor.shutdown();
+		pageExecutor.shutdown();
+	}
+
+	private List<ExtractedData> fetchWithinLimits(String formedURL) throws IOException, InterruptedException {
+
+		Semaphore hostPermit = permitFor(formedURL);
+		globalPermits.acquire();
+		try {
+			hostPermit.acquire();
+			try {
+				return new ArrayList<ExtractedData>(connector.fetch(formedURL));
+			}
+			finally {
+				hostPermit.release();
+			}
+		}
+		finally {
+			globalPermits.release();
+		}
+	}
+
+	private Executor limitedExecutor(String formedURL) {
+
+		final Semaphore hostPermit = permitFor(formedURL);
+		return task -> pageExecutor.execute(() -> {
+			globalPermits.acquireUninterruptibly();
+			hostPermit.acquireUninterruptibly();
+			try {
+				task.run();
+			}
+			finally {
+				hostPermit.release();
+				globalPermits.release();
+			}
+		});
+	}
+
+	private Semaphore permitFor(String formedURL) {
+
+		String host = hostOf(formedURL);
+		Semaphore permit = hostPermits.get(host);
+		if (permit == null) {
+			Semaphore created = new Semaphore(hostConcurrency);
+			permit = hostPermits.putIfAbsent(host, created);
+			if (permit == null)
+				permit = created;
+		}
+		return permit;
+	}
+
+	private static String hostOf(String formedURL) {
+
+		try {
+			String host = URI.create(formedURL).getHost();
+			return host == null ? "" : host.toLowerCase();
+		}
+		catch (IllegalArgumentException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Virtual threads are used when the running JVM has them, the project
+	 * itself still targets Java 8 so they are looked up reflectively.
+	 */
+	private static ExecutorService newExecutor(int maxConcurrency, final String threadName) {
+
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package leo.webcrawler.connect;
+
+/**
+ *
+ * The purpose of this class is to hold the outcome of one conditional fetch.
+ * The listing region of the page is only present when it changed since the
+ * last fetch of the same address.
+ *
+ * @author leoky
+ *
+ */
+public class FetchResult {
+
+	/**
+	 * How the page compares to the last fetch of the same address
+	 */
+	public enum Status {
+		CHANGED, NOT_MODIFIED, UNCHANGED
+	}
+
+	private final Status status;
+	private final String region;
+	private final long bytesRead;
+
+	/**
+	 *
+	 * @param status
+	 * @param region
+	 * @param bytesRead
+	 */
+	public FetchResult(Status status, String region, long bytesRead) {
+
+		this.status = status;
+		this.region = region;
+		this.bytesRead = bytesRead;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public Status getStatus() {
+
+		return status;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return true when the server answered 304 or sent the same bytes again
+	 */
+	public boolean isUnchanged() {
+
+		return status != Status.CHANGED;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the listing region of the page, or null when the page did not
+	 *         change
+	 */
+	public String getRegion() {
+
+		return region;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of body bytes downloaded
+	 */
+	public long getBytesRead() {
+
+		return bytesRead;
+	}
+}
@@ -0,0 +1,189 @@
+package leo.webcrawler.connect;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * The purpose of this class is to keep the crawler polite with every host it
+ * fetches from. Each host has a token bucket refilled at a number of requests
+ * per second and holding up to a burst of tokens; a request that finds the
+ * bucket empty reserves the next token and waits exactly until it is due.
+ * When a host answers 429 or 503 its bucket is paused until the Retry-After
+ * time and its rate is halved; every successful request then adds back a
+ * little of the configured rate, so the crawler settles just under what the
+ * host accepts instead of sleeping a fixed time.
+ *
+ * @author leoky
+ *
+ */
+public class HostRateLimiter {
+
+	private static final long DEFAULT_PENALTY = 1000 * 10;
+	private static final long MAX_PENALTY = 1000 * 60 * 10;
+	private static final double MIN_RATE_FRACTION = 0.05;
+	private static final double RECOVERY_FRACTION = 0.05;
+
+	private final double requestsPerSecond;
+	private final int burst;
+	private final ConcurrentMap<String, Bucket> buckets;
+
+	/**
+	 *
+	 * @param requestsPerSecond
+	 *            the sustained rate allowed per host
+	 * @param burst
+	 *            the number of requests a host may get at once after being
+	 *            idle
+	 */
+	public HostRateLimiter(double requestsPerSecond, int burst) {
+
+		if (requestsPerSecond <= 0 || burst < 1)
+			throw new IllegalArgumentException("The rate and the burst must be positive");
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.buckets = new ConcurrentHashMap<String, Bucket>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to wait until a request to a host is
+	 * allowed
+	 *
+	 * @param host
+	 * @throws InterruptedException
+	 */
+	public void acquire(String host) throws InterruptedException {
+
+		long wait = bucketOf(host).reserve(System.nanoTime());
+		if (wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to report that a host answered normally
+	 *
+	 * @param host
+	 */
+	public void onSuccess(String host) {
+
+		bucketOf(host).recover();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to report that a host is throttling us
+	 *
+	 * @param host
+	 * @param retryAfter
+	 *            the Retry-After header of the answer, may be null
+	 */
+	public void onThrottled(String host, String retryAfter) {
+
+		bucketOf(host).throttle(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(penaltyOf(retryAfter)));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param host
+	 * @return the rate currently allowed for the host, in requests per second
+	 */
+	public double getCurrentRate(String host) {
+
+		return bucketOf(host).currentRate();
+	}
+
+	private Bucket bucketOf(String host) {
+
+		String key = host.toLowerCase(Locale.ROOT);
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			Bucket created = new Bucket();
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null)
+				bucket = created;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Retry-After holds either a number of seconds or an HTTP date
+	 */
+	private static long penaltyOf(String retryAfter) {
+
+		if (retryAfter == null || retryAfter.trim().isEmpty())
+			return DEFAULT_PENALTY;
+		String value = retryAfter.trim();
+		try {
+			return Math.min(MAX_PENALTY, Math.max(0, Long.parseLong(value) * 1000));
+		}
+		catch (NumberFormatException e) {
+			// not seconds, try a date
+		}
+		try {
+			long until = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return Math.min(MAX_PENALTY, Math.max(0, until - System.currentTimeMillis()));
+		}
+		catch (DateTimeParseException e) {
+			return DEFAULT_PENALTY;
+		}
+	}
+
+	/**
+	 * The tokens of one host; times are System.nanoTime values
+	 */
+	private class Bucket {
+
+		private double rate = requestsPerSecond;
+		private double tokens = burst;
+		private long refilledAt = System.nanoTime();
+
+		/**
+		 * Takes a token, possibly one that is not there yet, and tells how
+		 * long to wait for it; while the bucket is paused refilledAt lies in
+		 * the future and every reservation queues up behind it
+		 */
+		private synchronized long reserve(long now) {
+
+			refill(now);
+			tokens -= 1;
+			long start = Math.max(now, refilledAt);
+			long due = tokens >= 0 ? start : start + (long) (-tokens / rate * 1e9);
+			return due - now;
+		}
+
+		private synchronized void recover() {
+
+			rate = Math.min(requestsPerSecond, rate + requestsPerSecond * RECOVERY_FRACTION);
+		}
+
+		private synchronized void throttle(long now, long penalty) {
+
+			refill(now);
+			rate = Math.max(requestsPerSecond * MIN_RATE_FRACTION, rate / 2);
+			tokens = Math.min(tokens, 0);
+			refilledAt = Math.max(refilledAt, now + penalty);
+		}
+
+		private synchronized double currentRate() {
+
+			return rate;
+		}
+
+		private void refill(long now) {
+
+			if (now > refilledAt) {
+				tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+				refilledAt = now;
+			}
+		}
+	}
+}
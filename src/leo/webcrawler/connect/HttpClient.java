@@ -0,0 +1,213 @@
+package leo.webcrawler.connect;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.Histogram;
+import leo.webcrawler.metrics.MetricsRegistry;
+import leo.webcrawler.replay.RecordedResponse;
+import leo.webcrawler.replay.ResponseRecorder;
+
+import org.jsoup.HttpStatusException;
+
+/**
+ *
+ * The purpose of this class is to be the one HTTP client every fetch of the
+ * crawler goes through. It relies on the keep-alive pool of the JDK, which
+ * the application sizes once at startup, so consecutive requests to the same host reuse their TCP and TLS
+ * connection; responses are asked for gzip or deflate and decoded on the fly,
+ * redirects are followed by hand (the JDK does not follow http to https), up
+ * to a limit past which the fetch fails, and every request has a connect and a read timeout. Every request, redirects
+ * included, first waits for the {@link HostRateLimiter}, which is told about
+ * 429 and 503 answers so it can slow down. A response that is not read
+ * to the end is drained when little is left, so its connection can go back
+ * to the pool, and dropped otherwise. The time spent waiting for the limiter
+ * and for the response headers, and the status of every response, are
+ * recorded in the {@link MetricsRegistry}. For offline runs every request can be
+ * sent to a local origin instead of its host, and every response can be
+ * handed whole to a recorder.
+ *
+ * @author leoky
+ *
+ */
+public class HttpClient {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static final int DEFAULT_READ_TIMEOUT = 20000;
+
+	public static final double DEFAULT_REQUESTS_PER_SECOND = 2;
+	public static final int DEFAULT_BURST = 4;
+
+	private static final int MAX_REDIRECTS = 5;
+	private static final int TOO_MANY_REQUESTS = 429;
+	private static final int SERVICE_UNAVAILABLE = 503;
+
+	private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+	private static final Histogram FETCH_LATENCY = METRICS.histogram("rentwebcrawler_fetch_latency_seconds",
+			"Time from sending a request to receiving its response headers", Histogram.NANOSECONDS);
+	private static final Histogram RATE_LIMIT_WAIT = METRICS.histogram("rentwebcrawler_rate_limit_wait_seconds",
+			"Time a request waited for the host rate limiter", Histogram.NANOSECONDS);
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final String userAgent;
+	private final HostRateLimiter rateLimiter;
+	private volatile String origin;
+	private volatile ResponseRecorder recorder;
+
+	/**
+	 *
+	 */
+	public HttpClient() {
+
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, new HostRateLimiter(DEFAULT_REQUESTS_PER_SECOND, DEFAULT_BURST));
+	}
+
+	/**
+	 *
+	 * @param connectTimeout
+	 *            in milliseconds
+	 * @param readTimeout
+	 *            in milliseconds
+	 * @param rateLimiter
+	 */
+	public HttpClient(int connectTimeout, int readTimeout, HostRateLimiter rateLimiter) {
+
+		this.rateLimiter = rateLimiter;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.userAgent = "Mozilla/5.0 (compatible; RentWebCrawler/1.0)";
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to send a GET request
+	 *
+	 * @param formedURL
+	 * @param headers
+	 *            extra request headers, may be empty
+	 * @return the response, to be closed by the caller
+	 * @throws IOException
+	 *             an {@link HttpStatusException} for 4xx and 5xx answers, and
+	 *             when the redirects go on past the limit
+	 */
+	public HttpResponse get(String formedURL, Map<String, String> headers) throws IOException {
+
+		URL url = new URL(formedURL);
+		for (int redirects = 0;; redirects++) {
+			long waitStart = System.nanoTime();
+			try {
+				rateLimiter.acquire(url.getHost());
+				RATE_LIMIT_WAIT.recordSince(waitStart);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+			}
+
+			HttpURLConnection connection = (HttpURLConnection) route(url).openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setRequestProperty("User-Agent", userAgent);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+			for (Map.Entry<String, String> header : headers.entrySet())
+				connection.setRequestProperty(header.getKey(), header.getValue());
+
+			long requestStart = System.nanoTime();
+			HttpResponse response;
+			try {
+				response = new HttpResponse(connection);
+			}
+			catch (IOException e) {
+				METRICS.countError("fetch", e);
+				throw e;
+			}
+			FETCH_LATENCY.recordSince(requestStart);
+			int status = response.getStatus();
+			METRICS.counter("rentwebcrawler_http_responses_total", "Responses by HTTP status", "status", String.valueOf(status)).increment();
+			if (status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE)
+				rateLimiter.onThrottled(url.getHost(), response.getHeader("Retry-After"));
+			else if (status < 400)
+				rateLimiter.onSuccess(url.getHost());
+
+			String location = response.getHeader("Location");
+			if (status >= 300 && status < 400 && status != HttpResponse.NOT_MODIFIED && location != null) {
+				response.close();
+				if (redirects >= MAX_REDIRECTS)
+					throw new IOException("Too many redirects: " + formedURL);
+				url = new URL(url, location);
+				continue;
+			}
+			if (status >= 400) {
+				response.close();
+				throw new HttpStatusException("HTTP error fetching URL", status, url.toString());
+			}
+			return record(formedURL, response);
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to send every request to one origin
+	 * instead of its host, e.g. a local
+	 * {@link leo.webcrawler.replay.ReplayServer}; the host then becomes the
+	 * first segment of the path, so http://olx.ro/a?b goes to origin/olx.ro/a?b.
+	 * Rate limiting still applies per original host.
+	 *
+	 * @param origin
+	 *            scheme, host and port, or null to reach the hosts themselves
+	 */
+	public void setOrigin(String origin) {
+
+		this.origin = origin;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record every response with a body
+	 * from now on, under the address asked for. Recorded bodies are
+	 * downloaded whole instead of up to the end of the listing region.
+	 *
+	 * @param recorder
+	 *            the recorder, or null to stop recording
+	 */
+	public void setRecorder(ResponseRecorder recorder) {
+
+		this.recorder = recorder;
+	}
+
+	private URL route(URL url) throws IOException {
+
+		String routedOrigin = origin;
+		return routedOrigin == null ? url : new URL(routedOrigin + "/" + url.getHost() + url.getFile());
+	}
+
+	private HttpResponse record(String formedURL, HttpResponse response) throws IOException {
+
+		ResponseRecorder responseRecorder = recorder;
+		if (responseRecorder == null || response.getStatus() == HttpResponse.NOT_MODIFIED)
+			return response;
+
+		byte[] body;
+		try {
+			body = response.buffer();
+		}
+		catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		try {
+			responseRecorder.record(new RecordedResponse(formedURL, System.currentTimeMillis(), response.getStatus(), response.getHeaders(),
+					body));
+		}
+		catch (IOException e) {
+			EventLog.getInstance().error("record_failed", e).field("url", formedURL).log();
+		}
+		return response;
+	}
+}
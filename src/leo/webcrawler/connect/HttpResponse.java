@@ -0,0 +1,228 @@
+package leo.webcrawler.connect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ *
+ * The purpose of this class is to wrap one response of the {@link HttpClient}:
+ * status, headers and a body decoded from gzip or deflate, while counting the
+ * bytes that actually came over the wire
+ *
+ * @author leoky
+ *
+ */
+public class HttpResponse implements Closeable {
+
+	public static final int NOT_MODIFIED = 304;
+
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	private final HttpURLConnection connection;
+	private final int status;
+	private CountingInputStream raw;
+	private InputStream decoded;
+	private InputStream body;
+
+	HttpResponse(HttpURLConnection connection) throws IOException {
+
+		this.connection = connection;
+		try {
+			this.status = connection.getResponseCode();
+		}
+		catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public int getStatus() {
+
+		return status;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @return
+	 */
+	public String getHeader(String name) {
+
+		return connection.getHeaderField(name);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return every header in the order received, several values of one
+	 *         header joined by commas
+	 */
+	public Map<String, String> getHeaders() {
+
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (header.getKey() != null)
+				headers.put(header.getKey(), String.join(", ", header.getValue()));
+		}
+		return headers;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the charset of the Content-Type header, UTF-8 when there is none
+	 */
+	public Charset getCharset() {
+
+		String contentType = connection.getContentType();
+		if (contentType != null) {
+			int index = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+			if (index >= 0) {
+				String name = contentType.substring(index + "charset=".length()).replace("\"", "").trim();
+				int end = name.indexOf(';');
+				try {
+					return Charset.forName(end < 0 ? name : name.substring(0, end).trim());
+				}
+				catch (IllegalArgumentException e) {
+					// unknown charset, fall back to the one the site uses
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the decoded body
+	 * @throws IOException
+	 */
+	public InputStream getBody() throws IOException {
+
+		if (body == null) {
+			InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			raw = new CountingInputStream(in == null ? new ByteArrayInputStream(new byte[0]) : in);
+			String encoding = status == NOT_MODIFIED ? null : connection.getContentEncoding();
+			if ("gzip".equalsIgnoreCase(encoding))
+				decoded = new GZIPInputStream(raw);
+			else if ("deflate".equalsIgnoreCase(encoding))
+				decoded = new InflaterInputStream(raw);
+			else
+				decoded = raw;
+			body = decoded;
+		}
+		return body;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to download the rest of the body at once;
+	 * {@link #getBody()} then reads it from memory
+	 *
+	 * @return the whole decoded body
+	 * @throws IOException
+	 */
+	public byte[] buffer() throws IOException {
+
+		InputStream in = getBody();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+		byte[] chunk = new byte[8192];
+		for (int read; (read = in.read(chunk)) >= 0;)
+			bytes.write(chunk, 0, read);
+		byte[] whole = bytes.toByteArray();
+		body = new ByteArrayInputStream(whole);
+		return whole;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of bytes received for the body so far, before
+	 *         decoding
+	 */
+	public long getBytesRead() {
+
+		return raw == null ? 0 : raw.count;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to release the connection. Whatever is
+	 * left of a short body is read so the connection can be reused; a long
+	 * rest is not worth downloading and the connection is dropped instead.
+	 */
+	@Override
+	public void close() {
+
+		try {
+			getBody();
+			byte[] skip = new byte[8192];
+			long drained = 0;
+			for (int read; drained <= MAX_DRAIN && (read = raw.read(skip)) >= 0;)
+				drained += read;
+			if (drained > MAX_DRAIN)
+				connection.disconnect();
+			else
+				decoded.close();
+		}
+		catch (IOException e) {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Counts the bytes taken off the wire
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		private CountingInputStream(InputStream in) {
+
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+
+			int read = super.read(buffer, offset, length);
+			if (read > 0)
+				count += read;
+			return read;
+		}
+	}
+}
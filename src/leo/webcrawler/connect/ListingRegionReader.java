@@ -0,0 +1,122 @@
+package leo.webcrawler.connect;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ *
+ * The purpose of this class is to read only the part of a result page that
+ * holds the listings while it is being downloaded. Everything before the tag
+ * carrying the start marker is thrown away as soon as the marker shows up,
+ * and reading stops right after the end marker, so headers, scripts, footers
+ * and recommendation widgets are neither kept nor, mostly, downloaded. When
+ * the start marker never shows up the whole page is kept, so a change of
+ * markup costs memory but no listings.
+ *
+ * @author leoky
+ *
+ */
+public class ListingRegionReader {
+
+	private static final int CHUNK = 8192;
+
+	private final String startMarker;
+	private final String endMarker;
+
+	/**
+	 *
+	 * @param startMarker
+	 *            text found inside the tag that opens the listing region, or
+	 *            null to keep the page from its beginning
+	 * @param endMarker
+	 *            text after which nothing is needed any more, or null to read
+	 *            to the end of the page
+	 */
+	public ListingRegionReader(String startMarker, String endMarker) {
+
+		this.startMarker = startMarker;
+		this.endMarker = endMarker;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to read the listing region from a page
+	 * being downloaded
+	 *
+	 * @param reader
+	 * @return the region; {@link Region#isEndMarkerReached()} tells whether
+	 *         the end marker was reached before the end of the page
+	 * @throws IOException
+	 */
+	public Region read(Reader reader) throws IOException {
+
+		StringBuilder text = new StringBuilder();
+		char[] chunk = new char[CHUNK];
+		boolean inRegion = startMarker == null;
+		int searchFrom = 0;
+
+		for (int read; (read = reader.read(chunk)) >= 0;) {
+			text.append(chunk, 0, read);
+
+			if (!inRegion) {
+				int start = text.indexOf(startMarker, searchFrom);
+				if (start < 0) {
+					searchFrom = Math.max(0, text.length() - startMarker.length());
+					continue;
+				}
+				int tagStart = text.lastIndexOf("<", start);
+				text.delete(0, Math.max(0, tagStart));
+				inRegion = true;
+				searchFrom = 0;
+			}
+			if (endMarker == null)
+				continue;
+
+			int end = text.indexOf(endMarker, searchFrom);
+			if (end >= 0) {
+				text.setLength(end + endMarker.length());
+				return new Region(text.toString(), true);
+			}
+			searchFrom = Math.max(0, text.length() - endMarker.length());
+		}
+		return new Region(text.toString(), false);
+	}
+
+	/**
+	 * The text read from a page
+	 */
+	public static class Region {
+
+		private final String text;
+		private final boolean endMarkerReached;
+
+		private Region(String text, boolean endMarkerReached) {
+
+			this.text = text;
+			this.endMarkerReached = endMarkerReached;
+		}
+
+		/**
+		 *
+		 * The purpose of this method is
+		 *
+		 * @return
+		 */
+		public String getText() {
+
+			return text;
+		}
+
+		/**
+		 *
+		 * The purpose of this method is
+		 *
+		 * @return true if reading stopped at the end marker, leaving the rest
+		 *         of the page unread
+		 */
+		public boolean isEndMarkerReached() {
+
+			return endMarkerReached;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package leo.webcrawler.connect;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *
+ * The purpose of this class is to download result pages only when they
+ * changed. The ETag and Last-Modified validators of every address are sent
+ * back as If-None-Match and If-Modified-Since; when the server ignores them
+ * the listing region is hashed and compared with the one of the previous
+ * fetch, so an identical page never has to be parsed again. Pages are read
+ * as a stream through a {@link ListingRegionReader} and the rest of the
+ * download is left to the {@link HttpClient} once the end of the listings is
+ * reached.
+ *
+ * @author leoky
+ *
+ */
+public class PageFetcher {
+
+	private final HttpClient httpClient;
+	private final ListingRegionReader regionReader;
+	private final ConcurrentMap<String, Validators> validators;
+
+	/**
+	 *
+	 * @param httpClient
+	 * @param regionReader
+	 */
+	public PageFetcher(HttpClient httpClient, ListingRegionReader regionReader) {
+
+		this.httpClient = httpClient;
+		this.regionReader = regionReader;
+		this.validators = new ConcurrentHashMap<String, Validators>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to fetch an address, conditionally on the
+	 * validators of its previous fetch when asked to
+	 *
+	 * @param formedURL
+	 * @param conditional
+	 *            false forces the body to be downloaded and returned, e.g.
+	 *            when the caller lost the previously parsed page
+	 * @return
+	 * @throws IOException
+	 */
+	public FetchResult fetch(String formedURL, boolean conditional) throws IOException {
+
+		Validators previous = conditional ? validators.get(formedURL) : null;
+		Map<String, String> headers = new HashMap<String, String>();
+		if (previous != null && previous.etag != null)
+			headers.put("If-None-Match", previous.etag);
+		if (previous != null && previous.lastModified != null)
+			headers.put("If-Modified-Since", previous.lastModified);
+
+		try (HttpResponse response = httpClient.get(formedURL, headers)) {
+			if (previous != null && response.getStatus() == HttpResponse.NOT_MODIFIED)
+				return new FetchResult(FetchResult.Status.NOT_MODIFIED, null, response.getBytesRead());
+
+			ListingRegionReader.Region region = regionReader.read(new InputStreamReader(response.getBody(), response.getCharset()));
+			byte[] regionHash = hash(region.getText());
+			validators.put(formedURL, new Validators(response.getHeader("ETag"), response.getHeader("Last-Modified"), regionHash));
+
+			if (previous != null && Arrays.equals(previous.regionHash, regionHash))
+				return new FetchResult(FetchResult.Status.UNCHANGED, null, response.getBytesRead());
+			return new FetchResult(FetchResult.Status.CHANGED, region.getText(), response.getBytesRead());
+		}
+	}
+
+	private static byte[] hash(String region) {
+
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(region.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is required by every Java platform", e);
+		}
+	}
+
+	/**
+	 * What was remembered from the last full fetch of an address
+	 */
+	private static class Validators {
+
+		private final String etag;
+		private final String lastModified;
+		private final byte[] regionHash;
+
+		private Validators(String etag, String lastModified, byte[] regionHash) {
+
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.regionHash = regionHash;
+		}
+	}
+}
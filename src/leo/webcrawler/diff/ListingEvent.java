@@ -0,0 +1,146 @@
+package leo.webcrawler.diff;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import leo.webcrawler.bean.ExtractedData;
+
+/**
+ *
+ * The purpose of this class is to describe what happened to one listing
+ * between two crawls of a watched query.
+ *
+ * @author leoky
+ *
+ */
+public class ListingEvent {
+
+	/**
+	 * The kinds of change the diff tells apart
+	 */
+	public enum Type {
+
+		/** the listing was never seen before */
+		NEW,
+
+		/** the listing is back with another price */
+		PRICE_CHANGED,
+
+		/** the listing is back with a later posting date and the same price */
+		REPOSTED,
+
+		/** the listing is gone from the results of its query */
+		REMOVED
+	}
+
+	private final Type type;
+	private final ExtractedData listing;
+	private final ExtractedData previous;
+
+	/**
+	 *
+	 * @param type
+	 * @param listing
+	 *            the listing as just crawled, or as last seen when it was
+	 *            removed
+	 * @param previous
+	 *            the listing as seen before, null when it is new
+	 */
+	public ListingEvent(Type type, ExtractedData listing, ExtractedData previous) {
+
+		this.type = type;
+		this.listing = listing;
+		this.previous = previous;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public Type getType() {
+
+		return type;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public ExtractedData getListing() {
+
+		return listing;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the version seen before, null for a new listing
+	 */
+	public ExtractedData getPrevious() {
+
+		return previous;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the new price minus the old one, in hundredths, negative for a
+	 *         price drop and 0 when either price has no amount
+	 */
+	public long getPriceChange() {
+
+		if (previous == null || !listing.hasPriceAmount() || !previous.hasPriceAmount())
+			return 0;
+		return listing.getPriceCents() - previous.getPriceCents();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param events
+	 * @param types
+	 * @return the events of the given types, in event order
+	 */
+	public static List<ListingEvent> eventsOf(List<ListingEvent> events, Type... types) {
+
+		EnumSet<Type> wanted = EnumSet.noneOf(Type.class);
+		for (Type type : types)
+			wanted.add(type);
+		List<ListingEvent> selected = new ArrayList<ListingEvent>();
+		for (ListingEvent event : events) {
+			if (wanted.contains(event.type))
+				selected.add(event);
+		}
+		return selected;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param events
+	 * @param types
+	 * @return the listings of the events of the given types, in event order
+	 */
+	public static List<ExtractedData> listingsOf(List<ListingEvent> events, Type... types) {
+
+		List<ExtractedData> listings = new ArrayList<ExtractedData>();
+		for (ListingEvent event : eventsOf(events, types))
+			listings.add(event.listing);
+		return listings;
+	}
+
+	@Override
+	public String toString() {
+
+		return type + " " + listing.getKey() + (type == Type.PRICE_CHANGED ? " " + previous.getPrice() + " -> " + listing.getPrice() : "");
+	}
+}
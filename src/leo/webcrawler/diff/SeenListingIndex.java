@@ -0,0 +1,266 @@
+package leo.webcrawler.diff;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.bean.ListingKey;
+import leo.webcrawler.store.ListingStore;
+
+/**
+ *
+ * The purpose of this class is to remember every listing the crawler has
+ * already seen. Listings are keyed by their {@link ListingKey}, so checking
+ * a crawled page against the index costs one hash lookup per listing no
+ * matter how many listings are tracked. Whether kept in memory or in a
+ * {@link ListingStore}, the index forgets a listing once it has not been
+ * observed for the retention time, so a crawler running for months only holds
+ * the listings that are still on the site.
+ * <p>
+ * Every crawl of a query is turned into {@link ListingEvent}s: a listing is
+ * new, changed price, was reposted with a later date, or is gone. The last
+ * snapshot of every query is kept keyed by listing, so the diff is one pass
+ * over the current snapshot and one over the previous one.
+ *
+ * @author leoky
+ *
+ */
+public class SeenListingIndex {
+
+	public static final long DEFAULT_RETENTION = 1000L * 60 * 60 * 24 * 30;
+	private static final int RETENTION_BUCKETS = 30;
+
+	private final TimeBucketedListingSet seen;
+	private final ListingStore store;
+	private final Map<Integer, Map<ListingKey, ExtractedData>> snapshots = new HashMap<Integer, Map<ListingKey, ExtractedData>>();
+
+	/**
+	 *
+	 */
+	public SeenListingIndex() {
+
+		this(DEFAULT_RETENTION);
+	}
+
+	/**
+	 *
+	 * @param retention
+	 *            how long a listing is remembered after it was last observed,
+	 *            in milliseconds
+	 */
+	public SeenListingIndex(long retention) {
+
+		seen = new TimeBucketedListingSet(retention, RETENTION_BUCKETS);
+		store = null;
+	}
+
+	/**
+	 *
+	 * @param store
+	 *            the disk-backed state the index reads and appends to, which
+	 *            forgets listings after its own retention
+	 */
+	public SeenListingIndex(ListingStore store) {
+
+		seen = null;
+		this.store = store;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record a freshly crawled snapshot and
+	 * return the listings that are new or whose price or date changed since
+	 * they were last seen
+	 *
+	 * @param current
+	 * @return the new and changed listings, in crawl order
+	 */
+	public List<ExtractedData> update(Collection<ExtractedData> current) {
+
+		return update(current, 0);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record a freshly crawled snapshot of
+	 * one watched query and return the listings that are new or whose price
+	 * or date changed since they were last seen
+	 *
+	 * @param current
+	 * @param query
+	 *            the number of the watched query the snapshot comes from
+	 * @return the new and changed listings, in crawl order
+	 */
+	public List<ExtractedData> update(Collection<ExtractedData> current, int query) {
+
+		return ListingEvent.listingsOf(diff(current, query), ListingEvent.Type.NEW, ListingEvent.Type.PRICE_CHANGED,
+				ListingEvent.Type.REPOSTED);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record a freshly crawled snapshot of
+	 * one watched query and tell what happened to its listings since the
+	 * previous snapshot of the same query
+	 *
+	 * @param current
+	 *            the listings in the order the site lists them
+	 * @param query
+	 *            the number of the watched query the snapshot comes from
+	 * @return the events of the listings that are new, changed or removed, in
+	 *         crawl order followed by the removed ones
+	 */
+	public synchronized List<ListingEvent> diff(Collection<ExtractedData> current, int query) {
+
+		long observedAt = System.currentTimeMillis();
+		if (store == null)
+			seen.expire(observedAt);
+		else
+			store.expire(observedAt);
+		List<ListingEvent> events = new ArrayList<ListingEvent>();
+		Map<ListingKey, ExtractedData> snapshot = new LinkedHashMap<ListingKey, ExtractedData>(current.size() * 2);
+		for (ExtractedData listing : current) {
+			if (snapshot.put(keyOf(listing), listing) != null)
+				continue;
+			ExtractedData previous = lookup(keyOf(listing));
+			ListingEvent.Type type = classify(previous, listing);
+			if (type != null)
+				events.add(new ListingEvent(type, listing, previous));
+			record(listing, type != null, observedAt);
+		}
+
+		Map<ListingKey, ExtractedData> previousSnapshot = snapshots.put(query, snapshot);
+		if (previousSnapshot != null)
+			addRemoved(previousSnapshot, snapshot, events);
+		return events;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param listing
+	 * @return true if a listing with the same key was already recorded
+	 */
+	public synchronized boolean contains(ExtractedData listing) {
+
+		return store == null ? seen.get(keyOf(listing)) != null : store.contains(keyOf(listing));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of tracked listings
+	 */
+	public synchronized int size() {
+
+		return store == null ? seen.size() : store.size();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public synchronized boolean isEmpty() {
+
+		return size() == 0;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to tell how often every listing still on
+	 * the site should be crawled, however deep in the results it is, so that
+	 * it is never forgotten while it is listed: once per expiry bucket
+	 *
+	 * @return the interval, in milliseconds
+	 */
+	public synchronized long getRenewalInterval() {
+
+		return store == null ? seen.getBucketSpan() : store.getBucketSpan();
+	}
+
+	private ExtractedData lookup(ListingKey key) {
+
+		return store == null ? seen.get(key) : store.get(key);
+	}
+
+	/**
+	 * In memory every sighting renews the listing; the store appends the
+	 * versions worth an event and renews the others once per bucket span
+	 */
+	private void record(ExtractedData listing, boolean changed, long observedAt) {
+
+		if (store == null) {
+			seen.observe(listing, observedAt);
+			return;
+		}
+		try {
+			if (changed)
+				store.put(listing, observedAt);
+			else
+				store.renew(listing, observedAt);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static ListingKey keyOf(ExtractedData listing) {
+
+		return listing.getKey();
+	}
+
+	/**
+	 * The type of event a crawled listing makes, null when nothing that
+	 * matters changed; the date text of an untouched listing moves from
+	 * "Azi" to "Ieri" to a day, so only a later posting time is a repost
+	 */
+	private static ListingEvent.Type classify(ExtractedData previous, ExtractedData current) {
+
+		if (previous == null)
+			return ListingEvent.Type.NEW;
+		boolean priceChanged = previous.hasPriceAmount() && current.hasPriceAmount()
+				? previous.getPriceCents() != current.getPriceCents() || !equalText(previous.getCurrency(), current.getCurrency())
+				: !equalText(previous.getPrice(), current.getPrice());
+		if (priceChanged)
+			return ListingEvent.Type.PRICE_CHANGED;
+		if (current.hasPostedAt() && previous.hasPostedAt() && current.getPostedAt() > previous.getPostedAt())
+			return ListingEvent.Type.REPOSTED;
+		return null;
+	}
+
+	/**
+	 * A crawl stops paging once it reaches listings it has seen, so it covers
+	 * a different stretch of the results every time. A listing of the previous
+	 * snapshot only counts as removed when a listing listed after it is still
+	 * there; the ones after the last survivor may just not have been reached.
+	 */
+	private static void addRemoved(Map<ListingKey, ExtractedData> previousSnapshot, Map<ListingKey, ExtractedData> snapshot,
+			List<ListingEvent> events) {
+
+		List<ExtractedData> missing = new ArrayList<ExtractedData>();
+		for (Map.Entry<ListingKey, ExtractedData> entry : previousSnapshot.entrySet()) {
+			if (!snapshot.containsKey(entry.getKey())) {
+				missing.add(entry.getValue());
+				continue;
+			}
+			for (ExtractedData removed : missing)
+				events.add(new ListingEvent(ListingEvent.Type.REMOVED, removed, removed));
+			missing.clear();
+		}
+	}
+
+	private static boolean equalText(String first, String second) {
+
+		return first == null ? second == null : first.equals(second);
+	}
+}
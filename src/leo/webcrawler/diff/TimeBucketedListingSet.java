@@ -0,0 +1,183 @@
+package leo.webcrawler.diff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.bean.ListingKey;
+
+/**
+ *
+ * The purpose of this class is to hold the listings observed within a
+ * retention window. Every listing is found through one hash map, so a lookup
+ * is a single hash lookup however many buckets there are. For expiry the
+ * listings are also filed in buckets that each cover a fixed span of time:
+ * a listing belongs to the bucket of the last time it was observed, and
+ * moving it to a newer bucket leaves its old entry behind to be skipped.
+ * Once a whole bucket is older than the retention its listings are dropped
+ * together, so nothing is scanned until a bucket expires.
+ *
+ * @author leoky
+ *
+ */
+class TimeBucketedListingSet {
+
+	private final long retention;
+	private final long bucketSpan;
+	private final ArrayDeque<Bucket> buckets;
+	private final Map<ListingKey, Entry> entries;
+
+	/**
+	 *
+	 * @param retention
+	 *            how long a listing is kept after it was last observed, in
+	 *            milliseconds
+	 * @param bucketCount
+	 *            the number of buckets the retention is split into
+	 */
+	TimeBucketedListingSet(long retention, int bucketCount) {
+
+		if (retention <= 0 || bucketCount < 1)
+			throw new IllegalArgumentException("The retention and the bucket count must be positive");
+		this.retention = retention;
+		this.bucketSpan = Math.max(1, retention / bucketCount);
+		this.buckets = new ArrayDeque<Bucket>();
+		this.entries = new HashMap<ListingKey, Entry>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param key
+	 * @return the last observed version of the listing, or null
+	 */
+	ExtractedData get(ListingKey key) {
+
+		Entry entry = entries.get(key);
+		return entry == null ? null : entry.listing;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record that a listing was seen, moving
+	 * it to the bucket of the observation time
+	 *
+	 * @param listing
+	 * @param observedAt
+	 *            in epoch milliseconds
+	 */
+	void observe(ExtractedData listing, long observedAt) {
+
+		Bucket current = bucketOf(observedAt);
+		ListingKey key = listing.getKey();
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(listing, current);
+			entries.put(key, entry);
+			current.entries.add(entry);
+			return;
+		}
+		entry.listing = listing;
+		if (entry.bucket != current) {
+			entry.bucket = current;
+			current.entries.add(entry);
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to drop every bucket whose listings were
+	 * all last observed before the retention window
+	 *
+	 * @param now
+	 *            in epoch milliseconds
+	 * @return the number of listings dropped
+	 */
+	int expire(long now) {
+
+		int dropped = 0;
+		while (!buckets.isEmpty() && buckets.peekFirst().end <= now - retention) {
+			Bucket expired = buckets.removeFirst();
+			for (Entry entry : expired.entries) {
+				// the listings observed again since live in a newer bucket
+				if (entry.bucket == expired) {
+					entries.remove(entry.listing.getKey());
+					dropped++;
+				}
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of listings held
+	 */
+	int size() {
+
+		return entries.size();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the span of time one bucket covers, in milliseconds
+	 */
+	long getBucketSpan() {
+
+		return bucketSpan;
+	}
+
+	/**
+	 * Observations arrive in time order, so only the newest bucket is ever
+	 * written to; a late observation joins it rather than an older bucket
+	 */
+	private Bucket bucketOf(long observedAt) {
+
+		Bucket newest = buckets.peekLast();
+		if (newest != null && observedAt < newest.end)
+			return newest;
+		long start = observedAt - Math.floorMod(observedAt, bucketSpan);
+		Bucket bucket = new Bucket(start + bucketSpan);
+		buckets.addLast(bucket);
+		return bucket;
+	}
+
+	/**
+	 * The last observed version of a listing and the bucket it belongs to
+	 */
+	private static class Entry {
+
+		private ExtractedData listing;
+		private Bucket bucket;
+
+		private Entry(ExtractedData listing, Bucket bucket) {
+
+			this.listing = listing;
+			this.bucket = bucket;
+		}
+	}
+
+	/**
+	 * The entries filed while their listing was observed within one span of
+	 * time; those observed again later have moved on to a newer bucket
+	 */
+	private static class Bucket {
+
+		private final long end;
+		private final List<Entry> entries;
+
+		private Bucket(long end) {
+
+			this.end = end;
+			this.entries = new ArrayList<Entry>();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package leo.webcrawler.extract;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import leo.webcrawler.bean.ExtractedData;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ *
+ * The purpose of this class is to turn a result page into listings with a
+ * single walk over the DOM, following the compiled {@link SiteDefinition} of
+ * the site. Every listing card is handled on its own: the title link, the
+ * price and the spawn date are picked up while the card is visited and the
+ * listing is emitted when the walk leaves the card. Links of the pager are
+ * looked at on the same walk to learn how many pages there are.
+ *
+ * @author leoky
+ *
+ */
+public class ListingExtractor implements NodeVisitor {
+
+	private static final int MAX_PAGE = 100000;
+
+	private final SiteDefinition site;
+	private final String pageParameter;
+	private final List<ExtractedData> listings;
+	private Element root;
+	private int lastPage;
+
+	private Element card;
+	private Element capture;
+	private Field captureField;
+	private StringBuilder captureText;
+
+	private String title;
+	private String url;
+	private String price;
+	private String data;
+
+	private enum Field {
+		TITLE, PRICE, DATA
+	}
+
+	/**
+	 *
+	 */
+	public ListingExtractor() {
+
+		this(SiteDefinitions.getInstance().getDefault());
+	}
+
+	/**
+	 *
+	 * @param site
+	 *            the rules of the site the pages come from
+	 */
+	public ListingExtractor(SiteDefinition site) {
+
+		this.site = site;
+		this.pageParameter = site.getPageParameter() + "=";
+		listings = new ArrayList<ExtractedData>();
+		lastPage = 1;
+		captureText = new StringBuilder();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to extract all the listings below the
+	 * given node
+	 *
+	 * @param root
+	 * @return
+	 */
+	public static List<ExtractedData> extract(Node root) {
+
+		return extractPage(root).getListings();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to extract the listings below the given
+	 * node together with the pager information
+	 *
+	 * @param root
+	 * @return
+	 */
+	public static ResultPage extractPage(Node root) {
+
+		return extractPage(root, SiteDefinitions.getInstance().getDefault());
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to extract the listings below the given
+	 * node together with the pager information, following the rules of a
+	 * site
+	 *
+	 * @param root
+	 * @param site
+	 * @return
+	 */
+	public static ResultPage extractPage(Node root, SiteDefinition site) {
+
+		ListingExtractor extractor = new ListingExtractor(site);
+		new NodeTraversor(extractor).traverse(root);
+		return new ResultPage(extractor.getListings(), extractor.getLastPage());
+	}
+
+	@Override
+	public void head(Node node, int depth) {
+
+		if (node instanceof TextNode) {
+			if (capture != null)
+				appendText(((TextNode) node).text());
+			return;
+		}
+		if (!(node instanceof Element))
+			return;
+
+		Element element = (Element) node;
+		if (root == null)
+			root = element;
+		if (card == null) {
+			if (site.isCard(root, element))
+				startCard(element);
+			else if (site.isPageLink(root, element))
+				readPageLink(element.attr("href"));
+			return;
+		}
+		if (capture != null)
+			return;
+
+		if (title == null && site.isTitle(card, element)) {
+			String href = site.urlOf(element);
+			if (!href.isEmpty() && !href.equals("#")) {
+				url = href;
+				startCapture(element, Field.TITLE);
+			}
+		}
+		else if (price == null && title != null && site.isPrice(card, element)) {
+			startCapture(element, Field.PRICE);
+		}
+		else if (data == null && site.isDate(card, element)) {
+			startCapture(element, Field.DATA);
+		}
+	}
+
+	@Override
+	public void tail(Node node, int depth) {
+
+		if (node == capture)
+			endCapture();
+		if (node == card)
+			endCard();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the listings emitted so far
+	 */
+	public List<ExtractedData> getListings() {
+
+		return listings;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the highest page number seen in the pager links
+	 */
+	public int getLastPage() {
+
+		return lastPage;
+	}
+
+	private void readPageLink(String href) {
+
+		int parameter = href.lastIndexOf(pageParameter);
+		if (parameter < 0)
+			return;
+		int page = 0;
+		for (int i = parameter + pageParameter.length(); i < href.length() && Character.isDigit(href.charAt(i)) && page < MAX_PAGE; i++)
+			page = page * 10 + (href.charAt(i) - '0');
+		if (page > lastPage)
+			lastPage = page;
+	}
+
+	private void startCard(Element element) {
+
+		card = element;
+		title = null;
+		url = null;
+		price = null;
+		data = null;
+	}
+
+	private void endCard() {
+
+		if (title != null && !title.isEmpty()) {
+			try {
+				ExtractedData listing = new ExtractedData(title, url);
+				listing.setPrice(price);
+				listing.setData(data);
+				listings.add(listing);
+			}
+			catch (MalformedURLException e) {
+				// not a listing link, the card is skipped
+			}
+		}
+		card = null;
+		capture = null;
+	}
+
+	private void startCapture(Element element, Field field) {
+
+		capture = element;
+		captureField = field;
+		captureText.setLength(0);
+	}
+
+	private void appendText(String text) {
+
+		if (text.trim().isEmpty())
+			return;
+		if (captureText.length() > 0)
+			captureText.append(' ');
+		captureText.append(text.trim());
+	}
+
+	private void endCapture() {
+
+		String text = captureText.toString();
+		switch (captureField) {
+			case TITLE:
+				if (text.isEmpty())
+					url = null;
+				else
+					title = text;
+				break;
+			case PRICE:
+				price = text;
+				break;
+			case DATA:
+				data = text;
+				break;
+		}
+		capture = null;
+	}
+}
@@ -0,0 +1,53 @@
+package leo.webcrawler.extract;
+
+import java.util.List;
+
+import leo.webcrawler.bean.ExtractedData;
+
+/**
+ *
+ * The purpose of this class is to hold what was extracted from one result
+ * page: its listings and the number of the last page the pager links to
+ *
+ * @author leoky
+ *
+ */
+public class ResultPage {
+
+	private final List<ExtractedData> listings;
+	private final int lastPage;
+
+	/**
+	 *
+	 * @param listings
+	 * @param lastPage
+	 */
+	public ResultPage(List<ExtractedData> listings, int lastPage) {
+
+		this.listings = listings;
+		this.lastPage = lastPage;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public List<ExtractedData> getListings() {
+
+		return listings;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the highest page number linked from the pager, 1 if there is
+	 *         no pager
+	 */
+	public int getLastPage() {
+
+		return lastPage;
+	}
+}
@@ -0,0 +1,344 @@
+package leo.webcrawler.extract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+
+/**
+ *
+ * The purpose of this class is to compile the CSS selectors of site
+ * definitions into jsoup evaluators once, so matching an element later costs
+ * no parsing. jsoup keeps its own selector parser to itself, so the common
+ * subset needed for listing pages is parsed here and built from the public
+ * evaluators: tag, *, .class, #id, [attr], [attr=value] with =, !=, ^=, $=
+ * and *=, :not(...), the descendant and child combinators and comma
+ * separated alternatives.
+ *
+ * @author leoky
+ *
+ */
+final class SelectorCompiler {
+
+	private final String css;
+	private int position;
+
+	private SelectorCompiler(String css) {
+
+		this.css = css;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param css
+	 * @return the evaluator matching the elements the selector selects
+	 * @throws IllegalArgumentException
+	 *             if the selector is not in the supported subset
+	 */
+	static Evaluator compile(String css) {
+
+		SelectorCompiler compiler = new SelectorCompiler(css.trim());
+		Evaluator evaluator = compiler.alternatives();
+		if (compiler.position < compiler.css.length())
+			throw compiler.error("Unexpected '" + compiler.css.charAt(compiler.position) + "'");
+		return evaluator;
+	}
+
+	private Evaluator alternatives() {
+
+		List<Evaluator> alternatives = new ArrayList<Evaluator>();
+		alternatives.add(sequence());
+		skipSpaces();
+		while (peek(',')) {
+			position++;
+			skipSpaces();
+			alternatives.add(sequence());
+			skipSpaces();
+		}
+		return alternatives.size() == 1 ? alternatives.get(0) : new AnyOf(alternatives);
+	}
+
+	/**
+	 * Compounds joined by combinators; the rightmost compound is the element
+	 * itself and the ones before it constrain its ancestors
+	 */
+	private Evaluator sequence() {
+
+		Evaluator evaluator = compound();
+		while (true) {
+			int before = position;
+			boolean spaced = skipSpaces();
+			if (peek('>')) {
+				position++;
+				skipSpaces();
+				evaluator = new AllOf(compound(), new WithParent(evaluator));
+			}
+			else if (spaced && position < css.length() && !peek(',') && !peek(')')) {
+				evaluator = new AllOf(compound(), new WithAncestor(evaluator));
+			}
+			else {
+				position = before;
+				return evaluator;
+			}
+		}
+	}
+
+	private Evaluator compound() {
+
+		List<Evaluator> parts = new ArrayList<Evaluator>();
+		boolean universal = peek('*');
+		if (universal) {
+			position++;
+		}
+		else if (position < css.length() && isNameChar(css.charAt(position))) {
+			parts.add(new Evaluator.Tag(name().toLowerCase(Locale.ROOT)));
+		}
+
+		while (position < css.length()) {
+			char c = css.charAt(position);
+			if (c == '.') {
+				position++;
+				parts.add(new Evaluator.Class(name()));
+			}
+			else if (c == '#') {
+				position++;
+				parts.add(new Evaluator.Id(name()));
+			}
+			else if (c == '[') {
+				position++;
+				parts.add(attribute());
+			}
+			else if (css.startsWith(":not(", position)) {
+				position += ":not(".length();
+				skipSpaces();
+				parts.add(new NoneOf(alternatives()));
+				skipSpaces();
+				expect(')');
+			}
+			else {
+				break;
+			}
+		}
+
+		if (parts.isEmpty() && !universal)
+			throw error("Expected a selector");
+		return parts.isEmpty() ? new Evaluator.AllElements() : parts.size() == 1 ? parts.get(0) : new AllOf(parts);
+	}
+
+	private Evaluator attribute() {
+
+		skipSpaces();
+		String key = name();
+		skipSpaces();
+		if (peek(']')) {
+			position++;
+			return new Evaluator.Attribute(key);
+		}
+
+		String operator;
+		if (peek('='))
+			operator = "=";
+		else if (position + 1 < css.length() && css.charAt(position + 1) == '=')
+			operator = css.substring(position, position + 2);
+		else
+			throw error("Expected an attribute operator");
+		position += operator.length();
+		skipSpaces();
+		String value = value();
+		skipSpaces();
+		expect(']');
+
+		switch (operator) {
+			case "=":
+				return new Evaluator.AttributeWithValue(key, value);
+			case "!=":
+				return new Evaluator.AttributeWithValueNot(key, value);
+			case "^=":
+				return new Evaluator.AttributeWithValueStarting(key, value);
+			case "$=":
+				return new Evaluator.AttributeWithValueEnding(key, value);
+			case "*=":
+				return new Evaluator.AttributeWithValueContaining(key, value);
+			default:
+				throw error("Unsupported attribute operator " + operator);
+		}
+	}
+
+	private String value() {
+
+		if (peek('"') || peek('\'')) {
+			char quote = css.charAt(position);
+			int end = css.indexOf(quote, position + 1);
+			if (end < 0)
+				throw error("Unterminated quote");
+			String value = css.substring(position + 1, end);
+			position = end + 1;
+			return value;
+		}
+		int start = position;
+		while (position < css.length() && css.charAt(position) != ']' && !Character.isWhitespace(css.charAt(position)))
+			position++;
+		return css.substring(start, position);
+	}
+
+	private String name() {
+
+		int start = position;
+		while (position < css.length() && isNameChar(css.charAt(position)))
+			position++;
+		if (start == position)
+			throw error("Expected a name");
+		return css.substring(start, position);
+	}
+
+	private boolean skipSpaces() {
+
+		int start = position;
+		while (position < css.length() && Character.isWhitespace(css.charAt(position)))
+			position++;
+		return position > start || position == css.length();
+	}
+
+	private boolean peek(char c) {
+
+		return position < css.length() && css.charAt(position) == c;
+	}
+
+	private void expect(char c) {
+
+		if (!peek(c))
+			throw error("Expected '" + c + "'");
+		position++;
+	}
+
+	private IllegalArgumentException error(String message) {
+
+		return new IllegalArgumentException(message + " at " + position + " in selector: " + css);
+	}
+
+	private static boolean isNameChar(char c) {
+
+		return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+	}
+
+	/**
+	 * Matches when every part matches
+	 */
+	private static final class AllOf extends Evaluator {
+
+		private final Evaluator[] parts;
+
+		private AllOf(List<Evaluator> parts) {
+
+			this.parts = parts.toArray(new Evaluator[parts.size()]);
+		}
+
+		private AllOf(Evaluator first, Evaluator second) {
+
+			this.parts = new Evaluator[] { first, second };
+		}
+
+		@Override
+		public boolean matches(Element root, Element element) {
+
+			for (Evaluator part : parts) {
+				if (!part.matches(root, element))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Matches when one of the alternatives matches
+	 */
+	private static final class AnyOf extends Evaluator {
+
+		private final Evaluator[] alternatives;
+
+		private AnyOf(List<Evaluator> alternatives) {
+
+			this.alternatives = alternatives.toArray(new Evaluator[alternatives.size()]);
+		}
+
+		@Override
+		public boolean matches(Element root, Element element) {
+
+			for (Evaluator alternative : alternatives) {
+				if (alternative.matches(root, element))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Matches when the wrapped evaluator does not
+	 */
+	private static final class NoneOf extends Evaluator {
+
+		private final Evaluator evaluator;
+
+		private NoneOf(Evaluator evaluator) {
+
+			this.evaluator = evaluator;
+		}
+
+		@Override
+		public boolean matches(Element root, Element element) {
+
+			return !evaluator.matches(root, element);
+		}
+	}
+
+	/**
+	 * Matches when an ancestor up to the root matches
+	 */
+	private static final class WithAncestor extends Evaluator {
+
+		private final Evaluator ancestor;
+
+		private WithAncestor(Evaluator ancestor) {
+
+			this.ancestor = ancestor;
+		}
+
+		@Override
+		public boolean matches(Element root, Element element) {
+
+			if (element == root)
+				return false;
+			for (Element parent = element.parent(); parent != null; parent = parent.parent()) {
+				if (ancestor.matches(root, parent))
+					return true;
+				if (parent == root)
+					return false;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Matches when the parent matches
+	 */
+	private static final class WithParent extends Evaluator {
+
+		private final Evaluator parent;
+
+		private WithParent(Evaluator parent) {
+
+			this.parent = parent;
+		}
+
+		@Override
+		public boolean matches(Element root, Element element) {
+
+			Element elementParent = element.parent();
+			return element != root && elementParent != null && parent.matches(root, elementParent);
+		}
+	}
+}
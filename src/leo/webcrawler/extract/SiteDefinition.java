@@ -0,0 +1,200 @@
+package leo.webcrawler.extract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+
+/**
+ *
+ * The purpose of this class is to describe how listings are read from the
+ * result pages of one site, so that a site is added by writing a definition
+ * instead of code. A definition is a properties file; its CSS selectors are
+ * compiled once into jsoup evaluators by {@link SelectorCompiler} and the
+ * compiled definition is immutable, so one instance serves every page and
+ * thread.
+ *
+ * <pre>
+ * name            the name of the site
+ * hosts           comma separated hosts the definition applies to
+ * region.start    text inside the tag that opens the listing region
+ * region.end      text after which nothing is needed (optional)
+ * card            selector of the element holding one listing
+ * title           selector of the title link inside a card
+ * title.url       attribute of the title link with the address (href)
+ * price           selector of the price inside a card, after the title
+ * date            selector of the posting date inside a card
+ * pager           selector of the pager links outside the cards (optional)
+ * page.parameter  query parameter carrying the page number (page)
+ * </pre>
+ *
+ * @author leoky
+ *
+ */
+public final class SiteDefinition {
+
+	private final String name;
+	private final List<String> hosts;
+	private final String regionStart;
+	private final String regionEnd;
+	private final Evaluator card;
+	private final Evaluator title;
+	private final String titleUrl;
+	private final Evaluator price;
+	private final Evaluator date;
+	private final Evaluator pager;
+	private final String pageParameter;
+
+	private SiteDefinition(Properties properties) {
+
+		name = required(properties, "name");
+		List<String> hostList = new ArrayList<String>();
+		for (String host : required(properties, "hosts").split(",")) {
+			if (!host.trim().isEmpty())
+				hostList.add(host.trim().toLowerCase(Locale.ROOT));
+		}
+		hosts = Collections.unmodifiableList(hostList);
+		regionStart = properties.getProperty("region.start");
+		regionEnd = properties.getProperty("region.end");
+		card = selector(properties, "card", true);
+		title = selector(properties, "title", true);
+		titleUrl = properties.getProperty("title.url", "href");
+		price = selector(properties, "price", false);
+		date = selector(properties, "date", false);
+		pager = selector(properties, "pager", false);
+		pageParameter = properties.getProperty("page.parameter", "page");
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to check a definition and compile its
+	 * selectors
+	 *
+	 * @param properties
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if a required rule is missing or a selector does not parse
+	 */
+	public static SiteDefinition compile(Properties properties) {
+
+		return new SiteDefinition(properties);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the hosts the definition applies to, in lower case
+	 */
+	public List<String> getHosts() {
+
+		return hosts;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the start marker of the listing region, or null to read the
+	 *         whole page
+	 */
+	public String getRegionStart() {
+
+		return regionStart;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the end marker of the listing region, or null to read to the
+	 *         end of the page
+	 */
+	public String getRegionEnd() {
+
+		return regionEnd;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the query parameter carrying the page number
+	 */
+	public String getPageParameter() {
+
+		return pageParameter;
+	}
+
+	boolean isCard(Element root, Element element) {
+
+		return card.matches(root, element);
+	}
+
+	boolean isTitle(Element card, Element element) {
+
+		return title.matches(card, element);
+	}
+
+	String urlOf(Element titleLink) {
+
+		return titleLink.attr(titleUrl);
+	}
+
+	boolean isPrice(Element card, Element element) {
+
+		return price != null && price.matches(card, element);
+	}
+
+	boolean isDate(Element card, Element element) {
+
+		return date != null && date.matches(card, element);
+	}
+
+	boolean isPageLink(Element root, Element element) {
+
+		return pager != null && pager.matches(root, element);
+	}
+
+	@Override
+	public String toString() {
+
+		return name + " " + hosts;
+	}
+
+	private String required(Properties properties, String key) {
+
+		String value = properties.getProperty(key);
+		if (value == null || value.trim().isEmpty())
+			throw new IllegalArgumentException("Site definition " + properties.getProperty("name", "") + " has no " + key);
+		return value.trim();
+	}
+
+	private Evaluator selector(Properties properties, String key, boolean required) {
+
+		String css = required ? required(properties, key) : properties.getProperty(key);
+		if (css == null || css.trim().isEmpty())
+			return null;
+		try {
+			return SelectorCompiler.compile(css);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Site definition " + name + " has a bad " + key + " selector: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package leo.webcrawler.extract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import leo.webcrawler.bean.ListingKey;
+import leo.webcrawler.log.EventLog;
+
+/**
+ *
+ * The purpose of this class is to hold the compiled definitions of every
+ * configured site and find the one of a page by its host with a single map
+ * lookup, so extraction costs the same however many sites are configured.
+ * The definitions shipped with the crawler are read from the classpath; more
+ * can be dropped as .properties files in the directory named by the
+ * rentwebcrawler.sites property, where they replace built-in ones of the same
+ * hosts. The first built-in definition is used for hosts nobody claims.
+ *
+ * @author leoky
+ *
+ */
+public final class SiteDefinitions {
+
+	private static final String[] BUILT_IN = { "olx.properties" };
+	private static final String SITES_PROPERTY = "rentwebcrawler.sites";
+
+	private final Map<String, SiteDefinition> byHost;
+	private final List<SiteDefinition> definitions;
+	private final SiteDefinition fallback;
+
+	/**
+	 *
+	 * @param definitions
+	 *            the definitions, the first one being used for unknown hosts;
+	 *            later definitions win over earlier ones of the same host
+	 */
+	public SiteDefinitions(List<SiteDefinition> definitions) {
+
+		if (definitions.isEmpty())
+			throw new IllegalArgumentException("At least one site definition is needed");
+		this.definitions = Collections.unmodifiableList(new ArrayList<SiteDefinition>(definitions));
+		this.fallback = definitions.get(0);
+		this.byHost = new HashMap<String, SiteDefinition>();
+		for (SiteDefinition definition : definitions) {
+			for (String host : definition.getHosts())
+				byHost.put(stripWww(host), definition);
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to give the definitions loaded at start
+	 * up, compiled once and shared by the whole crawler
+	 *
+	 * @return
+	 */
+	public static SiteDefinitions getInstance() {
+
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param url
+	 *            the address of a result page
+	 * @return the definition of the host of the address
+	 */
+	public SiteDefinition forUrl(String url) {
+
+		SiteDefinition definition = byHost.get(hostOf(url));
+		return definition == null ? fallback : definition;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the definition used for hosts nobody claims
+	 */
+	public SiteDefinition getDefault() {
+
+		return fallback;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return every configured definition
+	 */
+	public List<SiteDefinition> getDefinitions() {
+
+		return definitions;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to read and compile one definition file
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static SiteDefinition read(InputStream in) throws IOException {
+
+		Properties properties = new Properties();
+		try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		return SiteDefinition.compile(properties);
+	}
+
+	private static SiteDefinitions load() {
+
+		List<SiteDefinition> definitions = new ArrayList<SiteDefinition>();
+		for (String resource : BUILT_IN) {
+			InputStream in = SiteDefinitions.class.getResourceAsStream("sites/" + resource);
+			if (in == null)
+				throw new IllegalStateException("Missing built-in site definition " + resource);
+			try {
+				definitions.add(read(in));
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot read built-in site definition " + resource, e);
+			}
+		}
+
+		String directory = System.getProperty(SITES_PROPERTY);
+		if (directory != null) {
+			File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".properties"));
+			if (files == null) {
+				EventLog.getInstance().warn("site_definitions_missing").field("directory", directory).log();
+			}
+			else {
+				Arrays.sort(files);
+				for (File file : files) {
+					try {
+						definitions.add(read(new FileInputStream(file)));
+					}
+					catch (IOException | IllegalArgumentException e) {
+						EventLog.getInstance().warn("site_definition_skipped").field("file", file.getPath()).field("reason", e.getMessage()).log();
+					}
+				}
+			}
+		}
+		return new SiteDefinitions(definitions);
+	}
+
+	private static String hostOf(String url) {
+
+		String canonicalUrl = ListingKey.canonicalize(url);
+		int schemeEnd = canonicalUrl.indexOf("://");
+		if (schemeEnd < 0)
+			return "";
+		int hostEnd = canonicalUrl.indexOf('/', schemeEnd + 3);
+		String host = hostEnd < 0 ? canonicalUrl.substring(schemeEnd + 3) : canonicalUrl.substring(schemeEnd + 3, hostEnd);
+		int port = host.indexOf(':');
+		return port < 0 ? host : host.substring(0, port);
+	}
+
+	private static String stripWww(String host) {
+
+		return host.startsWith("www.") ? host.substring(4) : host;
+	}
+
+	/**
+	 * Loads the definitions the first time they are asked for
+	 */
+	private static class Holder {
+
+		private static final SiteDefinitions INSTANCE = load();
+	}
+}
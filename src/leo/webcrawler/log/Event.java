@@ -0,0 +1,201 @@
+package leo.webcrawler.log;
+
+/**
+ *
+ * The purpose of this class is to build one line of the {@link EventLog}.
+ * An event is a buffer of the calling thread, reused once logged: fields are
+ * appended as JSON straight into it and {@link #log()} copies the finished
+ * line into the ring of the log for the writer thread. Nothing reaches the
+ * ring before log(), so an event that is abandoned halfway, say because a
+ * field threw, is simply lost. It must not be touched after log().
+ *
+ * <pre>
+ * EventLog.getInstance().info("fetch").field("url", url).field("bytes", bytes).log();
+ * </pre>
+ *
+ * @author leoky
+ *
+ */
+public final class Event {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final EventLog owner;
+	private final StringBuilder text;
+	private boolean building;
+
+	Event(EventLog owner) {
+
+		this.owner = owner;
+		this.text = new StringBuilder(256);
+	}
+
+	/**
+	 * True from begin until log, and for good once abandoned halfway
+	 */
+	boolean isBuilding() {
+
+		return building;
+	}
+
+	Event begin(String level, String name) {
+
+		building = true;
+		text.setLength(0);
+		text.append("{\"ts\":").append(System.currentTimeMillis());
+		field("level", level);
+		field("event", name);
+		field("thread", Thread.currentThread().getName());
+		return this;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param value
+	 *            written as null when null
+	 * @return this event
+	 */
+	public Event field(String name, String value) {
+
+		name(name);
+		if (value == null) {
+			text.append("null");
+		}
+		else {
+			text.append('"');
+			escape(value);
+			text.append('"');
+		}
+		return this;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param value
+	 * @return this event
+	 */
+	public Event field(String name, long value) {
+
+		name(name);
+		text.append(value);
+		return this;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param value
+	 *            written as null when not a number or infinite
+	 * @return this event
+	 */
+	public Event field(String name, double value) {
+
+		name(name);
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			text.append("null");
+		else
+			text.append(value);
+		return this;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param value
+	 * @return this event
+	 */
+	public Event field(String name, boolean value) {
+
+		name(name);
+		text.append(value);
+		return this;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to add the class, message and stack
+	 * trace of an exception
+	 *
+	 * @param error
+	 * @return this event
+	 */
+	public Event error(Throwable error) {
+
+		if (error == null)
+			return this;
+		field("error", error.getClass().getName());
+		field("message", error.getMessage());
+		StringBuilder stack = new StringBuilder(1024);
+		for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			if (cause != error)
+				stack.append("Caused by: ").append(cause).append('\n');
+			for (StackTraceElement element : cause.getStackTrace())
+				stack.append("\tat ").append(element).append('\n');
+		}
+		return field("stack", stack.toString());
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to close the line and hand it to the
+	 * writer thread
+	 */
+	public void log() {
+
+		if (!building)
+			return;
+		text.append('}');
+		building = false;
+		owner.publish(text);
+		if (text.capacity() > EventLog.MAX_LINE_CAPACITY) {
+			text.setLength(0);
+			text.trimToSize();
+		}
+	}
+
+	private void name(String name) {
+
+		text.append(",\"");
+		escape(name);
+		text.append("\":");
+	}
+
+	private void escape(String value) {
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					text.append("\\\"");
+					break;
+				case '\\':
+					text.append("\\\\");
+					break;
+				case '\n':
+					text.append("\\n");
+					break;
+				case '\r':
+					text.append("\\r");
+					break;
+				case '\t':
+					text.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+						text.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+					else
+						text.append(c);
+			}
+		}
+	}
+}
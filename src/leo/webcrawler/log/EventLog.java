@@ -0,0 +1,424 @@
+package leo.webcrawler.log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * The purpose of this class is to keep a structured record of what the
+ * crawler does without slowing the crawl down. Every event is one JSON line
+ * with a timestamp, a level, a name, the thread and its own fields. Crawl
+ * threads build the line in a buffer of their own, copy the finished line
+ * into a preallocated slot of a ring and go on; one daemon thread takes the
+ * slots in order and writes them to a file, which is rotated when it grows
+ * past a size. A slot is claimed with a compare and set and published right
+ * after the copy, so many threads log without a lock and no slot is ever
+ * left claimed by an event that was not finished. When the ring is full
+ * because the disk cannot keep up, events are dropped and counted rather
+ * than making the crawl wait.
+ *
+ * The shared log is configured with the properties rentwebcrawler.log (the
+ * file, by default events.jsonl under ~/.rentwebcrawler/logs),
+ * rentwebcrawler.log.maxSize (bytes before rotating, 32 MB),
+ * rentwebcrawler.log.files (rotated files kept, 5) and
+ * rentwebcrawler.log.console (true to copy every line to the console).
+ *
+ * @author leoky
+ *
+ */
+public final class EventLog implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+	public static final int DEFAULT_FILES = 5;
+
+	/** the size past which a line buffer is shrunk once its line is out */
+	static final int MAX_LINE_CAPACITY = 64 * 1024;
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final long CLOSE_TIMEOUT = 2000;
+
+	private final Slot[] slots;
+	private final int mask;
+	private final AtomicLong claimed;
+	private final AtomicLong dropped;
+	private final ThreadLocal<Event> builders;
+	private final File file;
+	private final long maxSize;
+	private final int files;
+	private final PrintStream console;
+	private final Thread writerThread;
+	private volatile long consumed;
+	private volatile boolean idle;
+	private volatile boolean closed;
+	private volatile long written;
+	private Writer writer;
+	private long fileSize;
+
+	/**
+	 *
+	 * @param file
+	 *            the file to write to, null to write to the console only
+	 * @param capacity
+	 *            the number of events waiting to be written, rounded up to a
+	 *            power of two
+	 * @param maxSize
+	 *            the size in bytes past which the file is rotated
+	 * @param files
+	 *            the number of rotated files kept next to the current one
+	 * @param console
+	 *            where every line is copied too, or null
+	 */
+	public EventLog(File file, int capacity, long maxSize, int files, PrintStream console) {
+
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++)
+			slots[i] = new Slot();
+		this.mask = size - 1;
+		this.claimed = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.builders = new ThreadLocal<Event>();
+		this.file = file;
+		this.maxSize = maxSize;
+		this.files = files;
+		this.console = console;
+		this.writerThread = new Thread(this::drain, "event-log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to give the log shared by the whole
+	 * crawler, configured from the system properties and closed at exit
+	 *
+	 * @return
+	 */
+	public static EventLog getInstance() {
+
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start an informational event
+	 *
+	 * @param name
+	 * @return the event, to be completed and logged
+	 */
+	public Event info(String name) {
+
+		return begin("info", name);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start an event about something that
+	 * went wrong without being an error
+	 *
+	 * @param name
+	 * @return the event, to be completed and logged
+	 */
+	public Event warn(String name) {
+
+		return begin("warn", name);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start an event about a failure
+	 *
+	 * @param name
+	 * @param error
+	 *            the exception, written with its stack trace, or null
+	 * @return the event, to be completed and logged
+	 */
+	public Event error(String name, Throwable error) {
+
+		return begin("error", name).error(error);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of events dropped because the ring was full or the
+	 *         log closed
+	 */
+	public long getDropped() {
+
+		return dropped.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of events written
+	 */
+	public long getWritten() {
+
+		return written;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the file written to, null for the console only
+	 */
+	public File getFile() {
+
+		return file;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to write the events already logged and
+	 * stop the writer; events logged afterwards are dropped
+	 */
+	@Override
+	public void close() {
+
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(CLOSE_TIMEOUT);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hands out the line buffer of the calling thread; an event logged while
+	 * another is being built, or one abandoned halfway, gets a buffer of its
+	 * own
+	 */
+	private Event begin(String level, String name) {
+
+		Event event = builders.get();
+		if (event == null || event.isBuilding()) {
+			event = new Event(this);
+			builders.set(event);
+		}
+		return event.begin(level, name);
+	}
+
+	/**
+	 * Claims a slot, copies the finished line into it and publishes it, with
+	 * nothing in between that could leave the slot claimed for good
+	 */
+	void publish(CharSequence line) {
+
+		while (!closed) {
+			long sequence = claimed.get();
+			if (sequence - consumed >= slots.length)
+				break;
+			if (claimed.compareAndSet(sequence, sequence + 1)) {
+				Slot slot = slots[(int) sequence & mask];
+				slot.text.setLength(0);
+				slot.text.append(line);
+				slot.published = sequence;
+				if (idle)
+					LockSupport.unpark(writerThread);
+				return;
+			}
+		}
+		dropped.incrementAndGet();
+	}
+
+	/**
+	 * The loop of the writer thread: writes every published slot in order,
+	 * flushes when it runs out of them and sleeps until woken
+	 */
+	private void drain() {
+
+		open();
+		long next = 0;
+		while (true) {
+			Slot slot = slots[(int) next & mask];
+			if (slot.published == next) {
+				write(slot.text);
+				if (slot.text.capacity() > MAX_LINE_CAPACITY) {
+					slot.text.setLength(0);
+					slot.text.trimToSize();
+				}
+				next++;
+				consumed = next;
+				continue;
+			}
+
+			flush();
+			if (closed && claimed.get() == next)
+				break;
+			idle = true;
+			if (slot.published != next && !closed)
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			idle = false;
+			if (closed && slot.published != next)
+				waitForClaimed(slot, next);
+		}
+		closeWriter();
+	}
+
+	/**
+	 * After close, gives a thread that claimed a slot a moment to log it
+	 */
+	private void waitForClaimed(Slot slot, long next) {
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT / 2);
+		while (slot.published != next && claimed.get() > next && System.nanoTime() < deadline)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		if (slot.published != next)
+			claimed.set(next);
+	}
+
+	private void write(CharSequence line) {
+
+		written++;
+		if (console != null)
+			console.println(line);
+		if (writer == null)
+			return;
+		try {
+			writer.append(line).append('\n');
+			fileSize += line.length() + 1;
+			if (fileSize > maxSize)
+				rotate();
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void flush() {
+
+		if (writer == null)
+			return;
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void open() {
+
+		if (file == null)
+			return;
+		try {
+			File directory = file.getAbsoluteFile().getParentFile();
+			if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Cannot create " + directory);
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+			fileSize = file.length();
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * events.jsonl becomes events.1.jsonl, events.1.jsonl becomes
+	 * events.2.jsonl and so on, the oldest being deleted
+	 */
+	private void rotate() throws IOException {
+
+		writer.close();
+		writer = null;
+		for (int i = files; i >= 1; i--) {
+			File older = rotated(i);
+			File newer = i == 1 ? file : rotated(i - 1);
+			if (i == files && older.exists() && !older.delete())
+				throw new IOException("Cannot delete " + older);
+			if (newer.exists() && !newer.renameTo(older))
+				throw new IOException("Cannot rename " + newer + " to " + older);
+		}
+		if (files < 1 && !file.delete())
+			throw new IOException("Cannot delete " + file);
+		open();
+	}
+
+	private File rotated(int index) {
+
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String rotatedName = dot < 0 ? name + "." + index : name.substring(0, dot) + "." + index + name.substring(dot);
+		return new File(file.getAbsoluteFile().getParentFile(), rotatedName);
+	}
+
+	/**
+	 * The log cannot report on itself, so a broken file is told once on the
+	 * error stream and the events go on to the console only
+	 */
+	private void fail(IOException e) {
+
+		System.err.println("Event log " + file + " disabled: " + e);
+		if (writer != null) {
+			try {
+				writer.close();
+			}
+			catch (IOException closing) {
+				// already failing
+			}
+		}
+		writer = null;
+	}
+
+	private void closeWriter() {
+
+		if (writer == null)
+			return;
+		try {
+			writer.close();
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+		writer = null;
+	}
+
+	/**
+	 * One line of the ring, written by the thread that claimed it and read by
+	 * the writer once its sequence is published
+	 */
+	private static class Slot {
+
+		private final StringBuilder text = new StringBuilder(256);
+		private volatile long published = -1;
+	}
+
+	/**
+	 * Creates the shared log the first time it is asked for
+	 */
+	private static class Holder {
+
+		private static final EventLog INSTANCE = create();
+
+		private static EventLog create() {
+
+			File file = new File(System.getProperty("rentwebcrawler.log",
+					System.getProperty("user.home") + File.separator + ".rentwebcrawler" + File.separator + "logs" + File.separator
+							+ "events.jsonl"));
+			long maxSize = Long.getLong("rentwebcrawler.log.maxSize", DEFAULT_MAX_SIZE);
+			int files = Integer.getInteger("rentwebcrawler.log.files", DEFAULT_FILES);
+			PrintStream console = Boolean.getBoolean("rentwebcrawler.log.console") ? System.out : null;
+			final EventLog log = new EventLog(file, DEFAULT_CAPACITY, maxSize, files, console);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> log.close()));
+			return log;
+		}
+	}
+}
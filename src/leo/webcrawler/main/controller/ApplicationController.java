@@ -1,18 +1,38 @@
 package leo.webcrawler.main.controller;
 
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import leo.webcrawler.alert.AlertDispatcher;
+import leo.webcrawler.alert.ConsoleAlert;
+import leo.webcrawler.alert.EmailAlert;
+import leo.webcrawler.alert.VisualAlert;
 import leo.webcrawler.bean.ExtractedData;
 import leo.webcrawler.connect.Connector;
+import leo.webcrawler.connect.CrawlEngine;
+import leo.webcrawler.connect.HostRateLimiter;
+import leo.webcrawler.connect.HttpClient;
+import leo.webcrawler.diff.ListingEvent;
+import leo.webcrawler.diff.SeenListingIndex;
+import leo.webcrawler.log.Event;
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.Histogram;
+import leo.webcrawler.metrics.MetricsRegistry;
+import leo.webcrawler.metrics.MetricsServer;
+import leo.webcrawler.replay.ReplayServer;
+import leo.webcrawler.replay.ResponseArchive;
+import leo.webcrawler.schedule.AdaptiveIntervalPolicy;
+import leo.webcrawler.schedule.CrawlScheduler;
+import leo.webcrawler.schedule.WatchQuery;
+import leo.webcrawler.store.ListingStore;
 import leo.webcrawler.url.RentUrlBuilder;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
-import javax.swing.JOptionPane;
-import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
-
 /**
  * The purpose of this class is
  * 
@@ -20,8 +40,32 @@ import javax.swing.JTextArea;
  */
 public class ApplicationController {
 
+	private static final long POLL_INTERVAL = 1000 * 60 * 5;
+	private static final long MIN_POLL_INTERVAL = 1000 * 60;
+	private static final long MAX_POLL_INTERVAL = 1000 * 60 * 60;
+	private static final long ARRIVAL_HALF_LIFE = 1000 * 60 * 60 * 24 * 3;
+	private static final double POLLS_PER_HOUR_PER_QUERY = 12;
+	private static final int DEFAULT_METRICS_PORT = 9464;
+	private static final int CONNECTIONS_PER_HOST = 8;
+
+	private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+	private static final EventLog LOG = EventLog.getInstance();
+	private static final Histogram CYCLE_DURATION = METRICS.histogram("rentwebcrawler_crawl_cycle_duration_seconds",
+			"Time to crawl and diff a set of watched addresses", Histogram.NANOSECONDS);
+	private static final Histogram CYCLE_NEW_LISTINGS = METRICS.histogram("rentwebcrawler_cycle_new_listings",
+			"New listings found by one poll of a watch query", 1);
+
 	private RentUrlBuilder rentUrlBuilder;
 	private Connector connector;
+	private CrawlEngine crawlEngine;
+	private SeenListingIndex seenListings;
+	private ListingStore listingStore;
+	private AdaptiveIntervalPolicy intervalPolicy;
+	private CrawlScheduler crawlScheduler;
+	private AlertDispatcher alertDispatcher;
+	private List<String> queryUrls;
+	private ReplayServer replayServer;
+	private double speed = 1;
 
 	/**
 	 * 
@@ -30,7 +74,24 @@ public class ApplicationController {
 
 		String _urlBase = "http://olx.ro/imobiliare/apartamente-garsoniere-de-inchiriat/";
 		rentUrlBuilder = new RentUrlBuilder(_urlBase);
-		connector = new Connector();
+		configureKeepAlive();
+		connector = new Connector(openHttpClient());
+		crawlEngine = new CrawlEngine(connector);
+		seenListings = openSeenListings();
+		alertDispatcher = new AlertDispatcher(10000, 200, 2000);
+		alertDispatcher.addSink(new ConsoleAlert());
+		if (!GraphicsEnvironment.isHeadless())
+			alertDispatcher.addSink(new VisualAlert());
+		if (System.getProperty("rentwebcrawler.mail.host") != null) {
+			try {
+				alertDispatcher.addSink(openEmailAlert());
+			}
+			catch (IllegalArgumentException e) {
+				LOG.error("alert_mail_config_failed", e).log();
+			}
+		}
+		registerGauges();
+		openMetricsServer();
 	}
 
 	/**
@@ -45,42 +106,254 @@ public class ApplicationController {
 		rentUrlBuilder.addSource(RentUrlBuilder.privateType);
 
 		String builtUrl = rentUrlBuilder.getAddressAsString();
+		List<WatchQuery> watchQueries = Collections.singletonList(new WatchQuery("timisoara-1-camera", builtUrl, scaled(POLL_INTERVAL)));
 		
-		connector.extractLinks(builtUrl);
-		connector.displayExtractedData();
-		connector.setPreviousData(connector.getExtractedData());
-		connector.getExtractedData().clear();
-
-		Timer timer = new Timer();
-		timer.schedule(new TimerTask() {
-
-			@Override
-			public void run() {
-				
-				List<ExtractedData> previousData = connector.getPreviousData();
-				connector.extractLinks(builtUrl);
-				List<ExtractedData> currentData = connector.getExtractedData();
-				currentData.removeAll(previousData);
-
-				if (!currentData.isEmpty()) {
-					connector.displayExtractedData();
-					JTextArea ta = new JTextArea(10, 10);
-					for(ExtractedData e: currentData) {
-						ta.setText(e.toString() + "\n");
-					}
-	                ta.setWrapStyleWord(true);
-	                ta.setLineWrap(true);
-	                ta.setCaretPosition(0);
-	                ta.setEditable(false);
-					JOptionPane.showMessageDialog(null, new JScrollPane(ta), "Alerta chirie", JOptionPane.PLAIN_MESSAGE, null);
-				}
-				/*else {
-					JOptionPane.showMessageDialog(null, "Nici o chirie", "Alerta chirie", JOptionPane.PLAIN_MESSAGE, null);
-				}*/
-				
-				connector.getExtractedData().clear();
+		queryUrls = new ArrayList<String>();
+		for (WatchQuery query : watchQueries)
+			queryUrls.add(query.getUrl());
+		// only a crawler that has never seen anything takes the first crawl as
+		// a silent baseline, its listings being in the event log; otherwise it
+		// holds what was posted while it was down
+		boolean baseline = seenListings.isEmpty();
+		List<ListingEvent> initialEvents = crawlChanges(queryUrls);
+		if (baseline)
+			LOG.info("baseline").field("listings", ListingEvent.listingsOf(initialEvents, ListingEvent.Type.NEW).size()).log();
+		else
+			alert(initialEvents);
+
+		intervalPolicy = new AdaptiveIntervalPolicy(POLLS_PER_HOUR_PER_QUERY * speed * watchQueries.size(), scaled(MIN_POLL_INTERVAL),
+				scaled(MAX_POLL_INTERVAL), scaled(ARRIVAL_HALF_LIFE));
+		crawlScheduler = new CrawlScheduler(2, intervalPolicy, 0.1);
+		for (WatchQuery query : watchQueries)
+			crawlScheduler.schedule(query, this::crawlAndAlert, query.getInterval());
+	}
+
+	/**
+	 * The purpose of this method is to poll one query and hand the new
+	 * listings and the price changes to the alert sinks; reposts and
+	 * removals are only logged
+	 */
+	private int crawlAndAlert(WatchQuery query) {
+
+		List<ListingEvent> events = crawlChanges(Collections.singletonList(query.getUrl()));
+		int newListings = ListingEvent.listingsOf(events, ListingEvent.Type.NEW).size();
+		CYCLE_NEW_LISTINGS.record(newListings);
+
+		int alerts = alert(events);
+
+		Event summary = LOG.info("poll_result").field("query", query.getName()).field("events", events.size())
+				.field("new_listings", newListings).field("alerts", alerts)
+				.field("detection_latency_millis", intervalPolicy.getDetectionLatency());
+		if (replayServer != null)
+			summary.field("replay_served", replayServer.getServed()).field("replay_not_modified", replayServer.getNotModified())
+					.field("replay_missed", replayServer.getMissed()).field("replay_recording_time", replayServer.getRecordingTime());
+		summary.log();
+		return newListings;
+	}
+
+	/**
+	 * The purpose of this method is to hand the new listings and the price
+	 * changes among the events to the alert sinks
+	 * 
+	 * @return the number of events handed over
+	 */
+	private int alert(List<ListingEvent> events) {
+
+		List<ListingEvent> alerts = ListingEvent.eventsOf(events, ListingEvent.Type.NEW, ListingEvent.Type.PRICE_CHANGED);
+		if (!alerts.isEmpty())
+			alertDispatcher.publish(alerts);
+		return alerts.size();
+	}
+
+	/**
+	 * The purpose of this method is to crawl every watched address, following
+	 * pagination, and tell what changed since the previous crawl of each
+	 */
+	private List<ListingEvent> crawlChanges(List<String> watchedUrls) {
+
+		LOG.info("crawl_start").field("urls", watchedUrls.size()).log();
+		long cycleStart = System.nanoTime();
+
+		List<ListingEvent> events = new ArrayList<ListingEvent>();
+		for (Map.Entry<String, List<ExtractedData>> listings : crawlEngine.crawl(watchedUrls, seenListings).entrySet())
+			events.addAll(seenListings.diff(listings.getValue(), queryUrls.indexOf(listings.getKey())));
+		for (ListingEvent event : events) {
+			METRICS.counter("rentwebcrawler_listing_events_total", "Listing changes found by the diff, by type", "type",
+					event.getType().name()).increment();
+			logListingEvent(event);
+		}
+
+		long cycleNanos = System.nanoTime() - cycleStart;
+		CYCLE_DURATION.record(cycleNanos);
+		LOG.info("crawl_end").field("urls", watchedUrls.size()).field("events", events.size()).field("millis", cycleNanos / 1000000).log();
+		return events;
+	}
+
+	private static void logListingEvent(ListingEvent event) {
+
+		ExtractedData listing = event.getListing();
+		Event line = LOG.info("listing").field("type", event.getType().name()).field("key", listing.getKey().getValue())
+				.field("title", listing.getTitle()).field("url", String.valueOf(listing.getUrl())).field("price", listing.getPrice());
+		if (event.getPrevious() != null)
+			line.field("previous_price", event.getPrevious().getPrice()).field("price_change_cents", event.getPriceChange());
+		if (listing.hasPostedAt())
+			line.field("posted_at", listing.getPostedAt());
+		line.log();
+	}
+
+	/**
+	 * The purpose of this method is to export what the crawler only kept
+	 * for itself: the alert queues, the seen listings and the adaptive poll
+	 * intervals once they exist
+	 */
+	private void registerGauges() {
+
+		METRICS.gauge("rentwebcrawler_alert_queue_depth", "Listings waiting in all alert sink queues", () -> alertDispatcher.getQueueDepth());
+		METRICS.gauge("rentwebcrawler_alerts_dropped", "Listings dropped because an alert sink queue was full",
+				() -> alertDispatcher.getDropped());
+		METRICS.gauge("rentwebcrawler_log_dropped_events", "Events dropped because the event log ring was full", () -> LOG.getDropped());
+		METRICS.gauge("rentwebcrawler_detection_latency_seconds", "Expected delay before a new listing is seen, over all queries",
+				() -> intervalPolicy == null ? Double.NaN : intervalPolicy.getDetectionLatency() / 1000.0);
+		if (listingStore != null)
+			METRICS.gauge("rentwebcrawler_seen_listings", "Listings kept in the seen listing store", () -> listingStore.size());
+	}
+
+	/**
+	 * The purpose of this method is to serve the metrics at /metrics on the
+	 * rentwebcrawler.metrics.port port (9464 by default, 0 to turn it off) of
+	 * the rentwebcrawler.metrics.host address (the loopback one by default).
+	 * They are also always registered in JMX as
+	 * {@value MetricsRegistry#OBJECT_NAME}.
+	 */
+	private static void openMetricsServer() {
+
+		int port = Integer.getInteger("rentwebcrawler.metrics.port", DEFAULT_METRICS_PORT);
+		if (port <= 0)
+			return;
+		String host = System.getProperty("rentwebcrawler.metrics.host", "127.0.0.1");
+		try {
+			final MetricsServer server = MetricsServer.start(METRICS, new InetSocketAddress(host, port));
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> server.close()));
+			LOG.info("metrics_server").field("url", "http://" + host + ":" + server.getAddress().getPort() + "/metrics").log();
+		}
+		catch (IOException e) {
+			METRICS.countError("metrics", e);
+			LOG.error("metrics_server_failed", e).field("host", host).field("port", port).log();
+		}
+	}
+
+	/**
+	 * The purpose of this method is to size the keep-alive pool of the JDK,
+	 * which every {@link HttpClient} relies on to reuse its connections. The
+	 * pool is shared by the whole JVM and reads http.keepAlive and
+	 * http.maxConnections (the idle connections kept per host) only once,
+	 * when the first connection is made, so they are set here, before any
+	 * fetch, and only when not already given on the command line.
+	 */
+	private static void configureKeepAlive() {
+
+		if (System.getProperty("http.keepAlive") == null)
+			System.setProperty("http.keepAlive", "true");
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", String.valueOf(CONNECTIONS_PER_HOST));
+	}
+
+	/**
+	 * The purpose of this method is to set up the HTTP client. With the
+	 * rentwebcrawler.replay property naming a response archive, nothing is
+	 * fetched from the network: the archive is served by a local
+	 * {@link ReplayServer} rentwebcrawler.replay.speed times faster than it
+	 * was recorded, and the poll intervals and the rate limit are scaled by
+	 * the same factor. With the rentwebcrawler.record property every response
+	 * is also appended to the archive it names.
+	 */
+	private HttpClient openHttpClient() {
+
+		HttpClient httpClient;
+		String replayArchive = System.getProperty("rentwebcrawler.replay");
+		if (replayArchive == null) {
+			httpClient = new HttpClient();
+		}
+		else {
+			speed = Double.parseDouble(System.getProperty("rentwebcrawler.replay.speed", "1"));
+			httpClient = new HttpClient(HttpClient.DEFAULT_CONNECT_TIMEOUT, HttpClient.DEFAULT_READ_TIMEOUT,
+					new HostRateLimiter(HttpClient.DEFAULT_REQUESTS_PER_SECOND * speed, HttpClient.DEFAULT_BURST));
+			try {
+				final ReplayServer server = ReplayServer.start(ResponseArchive.read(new File(replayArchive)), speed, 0);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> server.close()));
+				replayServer = server;
 			}
-		}, 0, 1000 * 60 * 5);
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot replay " + replayArchive, e);
+			}
+			httpClient.setOrigin(replayServer.getOrigin());
+			LOG.info("replay_start").field("archive", replayArchive).field("addresses", replayServer.getAddressCount())
+					.field("speed", speed).field("origin", replayServer.getOrigin()).log();
+		}
+
+		String recordArchive = System.getProperty("rentwebcrawler.record");
+		if (recordArchive != null) {
+			try {
+				final ResponseArchive archive = ResponseArchive.create(new File(recordArchive));
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> archive.close()));
+				httpClient.setRecorder(archive);
+			}
+			catch (IOException e) {
+				LOG.error("record_failed", e).field("archive", recordArchive).log();
+			}
+		}
+		return httpClient;
+	}
+
+	/**
+	 * The purpose of this method is to keep the seen listings in the store
+	 * directory given by the rentwebcrawler.store property (by default under
+	 * the user home), falling back to memory when it cannot be opened. A
+	 * replay keeps them in memory unless a store is given.
+	 */
+	private SeenListingIndex openSeenListings() {
+
+		if (replayServer != null && System.getProperty("rentwebcrawler.store") == null)
+			return new SeenListingIndex();
+		File storeDirectory = new File(System.getProperty("rentwebcrawler.store",
+				System.getProperty("user.home") + File.separator + ".rentwebcrawler" + File.separator + "listings"));
+		try {
+			final ListingStore store = ListingStore.open(storeDirectory);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> store.close()));
+			listingStore = store;
+			return new SeenListingIndex(store);
+		}
+		catch (IOException e) {
+			LOG.error("store_open_failed", e).field("directory", storeDirectory.getPath()).log();
+			return new SeenListingIndex();
+		}
+	}
+
+	/**
+	 * The purpose of this method is to set up the email digests from the
+	 * rentwebcrawler.mail.* properties
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the sender or the recipients are missing or malformed
+	 */
+	private static EmailAlert openEmailAlert() {
+
+		final EmailAlert emailAlert = new EmailAlert(System.getProperty("rentwebcrawler.mail.host"),
+				Integer.getInteger("rentwebcrawler.mail.port", 587), System.getProperty("rentwebcrawler.mail.from"),
+				System.getProperty("rentwebcrawler.mail.to"));
+		if (System.getProperty("rentwebcrawler.mail.user") != null)
+			emailAlert.setCredentials(System.getProperty("rentwebcrawler.mail.user"), System.getProperty("rentwebcrawler.mail.password"));
+		emailAlert.setStartTls(Boolean.parseBoolean(System.getProperty("rentwebcrawler.mail.starttls", "true")));
+		emailAlert.setFlushSize(Integer.getInteger("rentwebcrawler.mail.flushSize", 100));
+		emailAlert.setFlushInterval(Long.getLong("rentwebcrawler.mail.flushInterval", 1000 * 60 * 10));
+		emailAlert.setMaxPending(Integer.getInteger("rentwebcrawler.mail.maxPending", 1000));
+		emailAlert.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> emailAlert.close()));
+		return emailAlert;
+	}
+
+	private long scaled(long interval) {
 
+		return Math.max(1, (long) (interval / speed));
 	}
 }
@@ -0,0 +1,47 @@
+package leo.webcrawler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The purpose of this class is to count events from many threads without
+ * contention
+ *
+ * @author leoky
+ *
+ */
+public final class Counter {
+
+	private final LongAdder value = new LongAdder();
+
+	/**
+	 *
+	 * The purpose of this method is
+	 */
+	public void increment() {
+
+		value.increment();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param amount
+	 */
+	public void add(long amount) {
+
+		value.add(amount);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public long get() {
+
+		return value.sum();
+	}
+}
@@ -0,0 +1,172 @@
+package leo.webcrawler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The purpose of this class is to record the distribution of a value, such
+ * as a latency in nanoseconds, at a fixed cost whatever its range, in the
+ * manner of HdrHistogram. Values below 256 get a bucket each; above, every
+ * power of two is split into 128 buckets, so a value is known within 0.8%
+ * of itself. Recording is one array increment without locking; quantiles
+ * are read from a pass over the counts.
+ *
+ * @author leoky
+ *
+ */
+public final class Histogram {
+
+	/** the export scale of histograms recording nanoseconds as seconds */
+	public static final double NANOSECONDS = 1e-9;
+
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+	private static final int MAX_SHIFT = 63 - (SUB_BUCKET_BITS - 1);
+
+	private final double scale;
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+	/**
+	 *
+	 * @param scale
+	 *            what one recorded unit is worth when exported, e.g.
+	 *            {@link #NANOSECONDS}, or 1
+	 */
+	public Histogram(double scale) {
+
+		this.scale = scale;
+		this.counts = new AtomicLongArray(SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param value
+	 *            negative values are recorded as 0
+	 */
+	public void record(long value) {
+
+		long recorded = Math.max(0, value);
+		counts.incrementAndGet(indexOf(recorded));
+		count.increment();
+		sum.add(recorded);
+		if (recorded > max.get())
+			max.accumulateAndGet(recorded, Math::max);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record the time elapsed since a start
+	 * taken with System.nanoTime()
+	 *
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos) {
+
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public long getCount() {
+
+		return count.sum();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the sum of the recorded values
+	 */
+	public long getSum() {
+
+		return sum.sum();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+
+		return max.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return what one recorded unit is worth when exported
+	 */
+	public double getScale() {
+
+		return scale;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param quantile
+	 *            between 0 and 1
+	 * @return the highest value of the bucket holding the quantile, never
+	 *         more than the largest recorded value; 0 when nothing was
+	 *         recorded
+	 */
+	public long getValueAtQuantile(double quantile) {
+
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * total));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static int indexOf(long value) {
+
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+		int top = (int) (value >>> shift);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (top - SUB_BUCKET_HALF);
+	}
+
+	private static long highestValueOf(int index) {
+
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		long top = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		long highest = ((top + 1) << shift) - 1;
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
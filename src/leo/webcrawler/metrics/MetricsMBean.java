@@ -0,0 +1,84 @@
+package leo.webcrawler.metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ *
+ * The purpose of this class is to show the metrics of a registry in JMX
+ * consoles. Metrics appear as they are created, so the attributes are
+ * listed again every time the bean is described; every attribute is a
+ * read-only double named after its series, e.g.
+ * rentwebcrawler_errors_total{stage="fetch",type="SocketTimeoutException"}.
+ *
+ * @author leoky
+ *
+ */
+class MetricsMBean implements DynamicMBean {
+
+	private final MetricsRegistry registry;
+
+	MetricsMBean(MetricsRegistry registry) {
+
+		this.registry = registry;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+		Double value = registry.getValues().get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+
+		throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+
+		Map<String, Double> values = registry.getValues();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Double value = values.get(attribute);
+			if (value != null)
+				list.add(new Attribute(attribute, value));
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+
+		throw new ReflectionException(new NoSuchMethodException(actionName), "The metrics bean has no operations");
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+
+		Map<String, Double> values = registry.getValues();
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+		int i = 0;
+		for (String name : values.keySet())
+			attributes[i++] = new MBeanAttributeInfo(name, "double", name, true, false, false);
+		return new MBeanInfo(getClass().getName(), "Crawler metrics", attributes, null, new MBeanOperationInfo[0], null);
+	}
+}
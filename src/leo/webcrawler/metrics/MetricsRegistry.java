@@ -0,0 +1,304 @@
+package leo.webcrawler.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import leo.webcrawler.log.EventLog;
+
+/**
+ *
+ * The purpose of this class is to hold every metric of the crawler under a
+ * Prometheus style name and labels, and export them all: as Prometheus text
+ * for the {@link MetricsServer} and as attributes of one JMX bean. Counters
+ * and histograms are created on first use and then shared, so hot paths
+ * look them up once and keep them in a field; gauges read their value from
+ * the component they describe when exported. Histograms are exported as
+ * summaries with their 0.5, 0.9, 0.99 and 0.999 quantiles.
+ *
+ * @author leoky
+ *
+ */
+public final class MetricsRegistry {
+
+	/** the name of the JMX bean of the shared registry */
+	public static final String OBJECT_NAME = "leo.webcrawler:type=Metrics";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final ConcurrentMap<String, Family> families;
+
+	/**
+	 *
+	 */
+	public MetricsRegistry() {
+
+		this.families = new ConcurrentHashMap<String, Family>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to give the registry shared by the whole
+	 * crawler, registered with the platform MBean server
+	 *
+	 * @return
+	 */
+	public static MetricsRegistry getInstance() {
+
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param help
+	 * @param labels
+	 *            label names and values, alternately
+	 * @return the counter of the name and labels
+	 */
+	public Counter counter(String name, String help, String... labels) {
+
+		return (Counter) familyOf(name, help, "counter").child(labels, Counter::new);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @param help
+	 * @param scale
+	 *            what one recorded unit is worth when exported
+	 * @param labels
+	 *            label names and values, alternately
+	 * @return the histogram of the name and labels
+	 */
+	public Histogram histogram(String name, String help, double scale, String... labels) {
+
+		return (Histogram) familyOf(name, help, "summary").child(labels, () -> new Histogram(scale));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to export a value read when asked for; a
+	 * gauge registered again under the same name and labels replaces the
+	 * previous one
+	 *
+	 * @param name
+	 * @param help
+	 * @param value
+	 * @param labels
+	 *            label names and values, alternately
+	 */
+	public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+
+		familyOf(name, help, "gauge").children.put(Family.labelsOf(labels), value);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to count a failure by where it happened
+	 * and the class of the exception
+	 *
+	 * @param stage
+	 *            fetch, page, query, poll, alert...
+	 * @param error
+	 */
+	public void countError(String stage, Throwable error) {
+
+		counter("rentwebcrawler_errors_total", "Failures by stage and exception class", "stage", stage, "type",
+				error.getClass().getSimpleName()).increment();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to write every metric in the Prometheus
+	 * text format, version 0.0.4
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writePrometheus(final Appendable out) throws IOException {
+
+		for (Family family : new TreeMap<String, Family>(families).values()) {
+			out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (Map.Entry<String, Object> child : new TreeMap<String, Object>(family.children).entrySet()) {
+				String labels = child.getKey();
+				Object metric = child.getValue();
+				if (metric instanceof Histogram) {
+					Histogram histogram = (Histogram) metric;
+					for (double quantile : QUANTILES)
+						sample(out, family.name, withLabel(labels, "quantile", String.valueOf(quantile)),
+								histogram.getValueAtQuantile(quantile) * histogram.getScale());
+					sample(out, family.name + "_sum", labels, histogram.getSum() * histogram.getScale());
+					sample(out, family.name + "_count", labels, histogram.getCount());
+				}
+				else {
+					sample(out, family.name, labels, valueOf(metric));
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to give every value under its series
+	 * name, as the JMX bean shows them; histograms give their count, sum,
+	 * max and quantiles
+	 *
+	 * @return the values by series name, in name order
+	 */
+	public Map<String, Double> getValues() {
+
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Family family : new TreeMap<String, Family>(families).values()) {
+			for (Map.Entry<String, Object> child : new TreeMap<String, Object>(family.children).entrySet()) {
+				String labels = child.getKey();
+				Object metric = child.getValue();
+				if (metric instanceof Histogram) {
+					Histogram histogram = (Histogram) metric;
+					values.put(family.name + "_count" + labels, (double) histogram.getCount());
+					values.put(family.name + "_sum" + labels, histogram.getSum() * histogram.getScale());
+					values.put(family.name + "_max" + labels, histogram.getMax() * histogram.getScale());
+					for (double quantile : QUANTILES)
+						values.put(family.name + withLabel(labels, "quantile", String.valueOf(quantile)),
+								histogram.getValueAtQuantile(quantile) * histogram.getScale());
+				}
+				else {
+					values.put(family.name + labels, valueOf(metric));
+				}
+			}
+		}
+		return values;
+	}
+
+	private Family familyOf(String name, String help, String type) {
+
+		Family family = families.get(name);
+		if (family == null) {
+			Family created = new Family(name, help, type);
+			family = families.putIfAbsent(name, created);
+			if (family == null)
+				family = created;
+		}
+		if (!family.type.equals(type))
+			throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+		return family;
+	}
+
+	private static double valueOf(Object metric) {
+
+		if (metric instanceof Counter)
+			return ((Counter) metric).get();
+		try {
+			return ((DoubleSupplier) metric).getAsDouble();
+		}
+		catch (RuntimeException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static void sample(Appendable out, String name, String labels, double value) throws IOException {
+
+		out.append(name).append(labels).append(' ');
+		if (Double.isNaN(value))
+			out.append("NaN");
+		else if (Double.isInfinite(value))
+			out.append(value > 0 ? "+Inf" : "-Inf");
+		else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			out.append(Long.toString((long) value));
+		else
+			out.append(Double.toString(value));
+		out.append('\n');
+	}
+
+	private static String withLabel(String labels, String name, String value) {
+
+		String label = name + "=\"" + value + "\"";
+		return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+	}
+
+	/**
+	 * The metrics sharing one name, by their labels
+	 */
+	private static class Family {
+
+		private final String name;
+		private final String help;
+		private final String type;
+		private final ConcurrentMap<String, Object> children;
+
+		private Family(String name, String help, String type) {
+
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.children = new ConcurrentHashMap<String, Object>();
+		}
+
+		private Object child(String[] labels, Supplier<Object> factory) {
+
+			String key = labelsOf(labels);
+			Object child = children.get(key);
+			if (child == null) {
+				Object created = factory.get();
+				child = children.putIfAbsent(key, created);
+				if (child == null)
+					child = created;
+			}
+			return child;
+		}
+
+		/**
+		 * Formats label pairs as {a="1",b="2"}, or nothing without labels
+		 */
+		private static String labelsOf(String[] labels) {
+
+			if (labels.length % 2 != 0)
+				throw new IllegalArgumentException("Labels must be given as name and value pairs");
+			if (labels.length == 0)
+				return "";
+			StringBuilder formatted = new StringBuilder("{");
+			for (int i = 0; i < labels.length; i += 2) {
+				if (i > 0)
+					formatted.append(',');
+				formatted.append(labels[i]).append("=\"")
+						.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+			}
+			return formatted.append('}').toString();
+		}
+	}
+
+	/**
+	 * Creates the shared registry and its JMX bean the first time it is
+	 * asked for
+	 */
+	private static class Holder {
+
+		private static final MetricsRegistry INSTANCE = create();
+
+		private static MetricsRegistry create() {
+
+			MetricsRegistry registry = new MetricsRegistry();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e) {
+				EventLog.getInstance().error("metrics_jmx_failed", e).log();
+			}
+			return registry;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package leo.webcrawler.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * The purpose of this class is to let Prometheus, or curl, read the metrics
+ * of a registry over HTTP at /metrics. It answers on one daemon thread, so
+ * a scrape never competes with the crawl for more than that.
+ *
+ * @author leoky
+ *
+ */
+public class MetricsServer implements Closeable {
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final int METHOD_NOT_ALLOWED = 405;
+
+	private final MetricsRegistry registry;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private MetricsServer(MetricsRegistry registry, InetSocketAddress address) throws IOException {
+
+		this.registry = registry;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = HttpServer.create(address, 0);
+		server.createContext("/metrics", this::handle);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start serving the metrics
+	 *
+	 * @param registry
+	 * @param address
+	 *            the address to listen on, port 0 for any free one
+	 * @return the running server
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public static MetricsServer start(MetricsRegistry registry, InetSocketAddress address) throws IOException {
+
+		MetricsServer metricsServer = new MetricsServer(registry, address);
+		metricsServer.server.start();
+		return metricsServer;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the address the server listens on
+	 */
+	public InetSocketAddress getAddress() {
+
+		return server.getAddress();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop serving
+	 */
+	@Override
+	public void close() {
+
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+
+		try {
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(METHOD_NOT_ALLOWED, -1);
+				return;
+			}
+			StringBuilder text = new StringBuilder(8192);
+			registry.writePrometheus(text);
+			byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package leo.webcrawler.replay;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * The purpose of this class is to hold one response as it was received while
+ * recording: the address that was asked for, when, the status, the headers
+ * and the whole body, already decoded from gzip or deflate.
+ *
+ * @author leoky
+ *
+ */
+public class RecordedResponse {
+
+	private final String url;
+	private final long recordedAt;
+	private final int status;
+	private final Map<String, String> headers;
+	private final byte[] body;
+
+	/**
+	 *
+	 * @param url
+	 *            the address the crawler asked for, before redirects
+	 * @param recordedAt
+	 *            in milliseconds since the epoch
+	 * @param status
+	 * @param headers
+	 *            the response headers, several values of one header joined
+	 *            by commas
+	 * @param body
+	 *            the decoded body
+	 */
+	public RecordedResponse(String url, long recordedAt, int status, Map<String, String> headers, byte[] body) {
+
+		this.url = url;
+		this.recordedAt = recordedAt;
+		this.status = status;
+		this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+		this.body = body;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public String getUrl() {
+
+		return url;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public long getRecordedAt() {
+
+		return recordedAt;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public int getStatus() {
+
+		return status;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the headers in the order they were received
+	 */
+	public Map<String, String> getHeaders() {
+
+		return headers;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param name
+	 * @return the value of the header, whatever the case of its name, or null
+	 */
+	public String getHeader(String name) {
+
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name))
+				return header.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the decoded body, not to be modified
+	 */
+	public byte[] getBody() {
+
+		return body;
+	}
+
+	@Override
+	public String toString() {
+
+		return status + " " + url + " (" + body.length + " bytes)";
+	}
+}
@@ -0,0 +1,351 @@
+package leo.webcrawler.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * The purpose of this class is to stand in for the crawled sites with a
+ * local HTTP server answering from recorded responses, so the whole crawl
+ * pipeline can run without network access. The
+ * {@link leo.webcrawler.connect.HttpClient} is pointed at it with
+ * {@link leo.webcrawler.connect.HttpClient#setOrigin(String)} and asks for
+ * /host/path?query. The server replays the recording on its own clock,
+ * running speed times faster than real time from the first recorded
+ * response: each address gets the latest response recorded for it up to the
+ * current recording time, or its first one if none was recorded yet. The
+ * recorded ETag and Last-Modified validators are honoured with 304 answers
+ * and bodies are sent gzip compressed to clients that accept it, as the
+ * real site does.
+ *
+ * @author leoky
+ *
+ */
+public class ReplayServer implements Closeable {
+
+	private static final int THREADS = 4;
+	private static final int NOT_FOUND = 404;
+	private static final int NOT_MODIFIED = 304;
+	private static final List<String> GENERATED_HEADERS = Arrays.asList("content-encoding", "content-length", "transfer-encoding",
+			"connection", "keep-alive", "date");
+
+	private final Map<String, Entry[]> timelines;
+	private final long firstRecordedAt;
+	private final double speed;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicLong served;
+	private final AtomicLong notModified;
+	private final AtomicLong missed;
+	private long startedAt;
+
+	private ReplayServer(List<RecordedResponse> responses, double speed, int port) throws IOException {
+
+		if (responses.isEmpty())
+			throw new IllegalArgumentException("There is nothing to replay");
+		if (speed <= 0)
+			throw new IllegalArgumentException("The replay speed must be positive");
+		this.speed = speed;
+
+		Map<String, List<Entry>> byKey = new HashMap<String, List<Entry>>();
+		long first = Long.MAX_VALUE;
+		for (RecordedResponse response : responses) {
+			String key = keyOf(response.getUrl());
+			if (key == null)
+				continue;
+			List<Entry> timeline = byKey.get(key);
+			if (timeline == null) {
+				timeline = new ArrayList<Entry>();
+				byKey.put(key, timeline);
+			}
+			timeline.add(new Entry(response));
+			first = Math.min(first, response.getRecordedAt());
+		}
+		this.timelines = new HashMap<String, Entry[]>();
+		for (Map.Entry<String, List<Entry>> timeline : byKey.entrySet()) {
+			Entry[] entries = timeline.getValue().toArray(new Entry[timeline.getValue().size()]);
+			Arrays.sort(entries, (a, b) -> Long.compare(a.response.getRecordedAt(), b.response.getRecordedAt()));
+			timelines.put(timeline.getKey(), entries);
+		}
+		this.firstRecordedAt = first;
+
+		this.served = new AtomicLong();
+		this.notModified = new AtomicLong();
+		this.missed = new AtomicLong();
+		this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "replay-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start serving a recording
+	 *
+	 * @param responses
+	 *            the recorded responses, in any order
+	 * @param speed
+	 *            how many times faster than real time the recording is
+	 *            replayed
+	 * @param port
+	 *            the local port, 0 for any free one
+	 * @return the running server
+	 * @throws IOException
+	 */
+	public static ReplayServer start(List<RecordedResponse> responses, double speed, int port) throws IOException {
+
+		ReplayServer replayServer = new ReplayServer(responses, speed, port);
+		replayServer.startedAt = System.nanoTime();
+		replayServer.server.start();
+		return replayServer;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the address to give to
+	 *         {@link leo.webcrawler.connect.HttpClient#setOrigin(String)}
+	 */
+	public String getOrigin() {
+
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the moment of the recording being replayed now, in
+	 *         milliseconds since the epoch
+	 */
+	public long getRecordingTime() {
+
+		return firstRecordedAt + (long) ((System.nanoTime() - startedAt) / 1000000.0 * speed);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of recorded addresses
+	 */
+	public int getAddressCount() {
+
+		return timelines.size();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of responses sent with a body
+	 */
+	public long getServed() {
+
+		return served.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of 304 answers to conditional requests
+	 */
+	public long getNotModified() {
+
+		return notModified.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of requests for addresses that were never recorded
+	 */
+	public long getMissed() {
+
+		return missed.get();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop serving
+	 */
+	@Override
+	public void close() {
+
+		server.stop(0);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to name an address the same way whether
+	 * it was recorded or asked for through the server: host without www,
+	 * path and query, whatever the scheme
+	 *
+	 * @param url
+	 * @return the key of the address, or null if it is not a URL
+	 */
+	public static String keyOf(String url) {
+
+		try {
+			URL parsed = new URL(url);
+			return stripWww(parsed.getHost().toLowerCase(Locale.ROOT)) + parsed.getFile();
+		}
+		catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+
+		try {
+			Entry entry = find(requestKey(exchange.getRequestURI()));
+			if (entry == null) {
+				missed.incrementAndGet();
+				exchange.sendResponseHeaders(NOT_FOUND, -1);
+				return;
+			}
+
+			RecordedResponse response = entry.response;
+			Headers responseHeaders = exchange.getResponseHeaders();
+			for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+				if (!GENERATED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT)))
+					responseHeaders.add(header.getKey(), header.getValue());
+			}
+
+			if (isNotModified(exchange.getRequestHeaders(), response)) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(NOT_MODIFIED, -1);
+				return;
+			}
+
+			byte[] body = response.getBody();
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip")) {
+				body = entry.gzipped();
+				responseHeaders.set("Content-Encoding", "gzip");
+			}
+			served.incrementAndGet();
+			if (body.length == 0) {
+				exchange.sendResponseHeaders(response.getStatus(), -1);
+				return;
+			}
+			exchange.sendResponseHeaders(response.getStatus(), body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private Entry find(String key) {
+
+		Entry[] timeline = timelines.get(key);
+		if (timeline == null)
+			return null;
+		long now = getRecordingTime();
+		int low = 0;
+		int high = timeline.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (timeline[middle].response.getRecordedAt() <= now)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return timeline[low];
+	}
+
+	private static boolean isNotModified(Headers requestHeaders, RecordedResponse response) {
+
+		String etag = response.getHeader("ETag");
+		String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+		if (etag != null && ifNoneMatch != null)
+			return ifNoneMatch.equals(etag);
+		String lastModified = response.getHeader("Last-Modified");
+		String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+		return lastModified != null && lastModified.equals(ifModifiedSince);
+	}
+
+	/**
+	 * The request path starts with the host of the address asked for
+	 */
+	private static String requestKey(URI uri) {
+
+		String path = uri.getRawPath();
+		int hostEnd = path.indexOf('/', 1);
+		String host = hostEnd < 0 ? path.substring(1) : path.substring(1, hostEnd);
+		String file = (hostEnd < 0 ? "" : path.substring(hostEnd)) + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+		return stripWww(host.toLowerCase(Locale.ROOT)) + file;
+	}
+
+	private static String stripWww(String host) {
+
+		return host.startsWith("www.") ? host.substring(4) : host;
+	}
+
+	/**
+	 * A recorded response with its body compressed once, when first asked
+	 */
+	private static class Entry {
+
+		private final RecordedResponse response;
+		private volatile byte[] gzipped;
+
+		private Entry(RecordedResponse response) {
+
+			this.response = response;
+		}
+
+		private byte[] gzipped() throws IOException {
+
+			byte[] compressed = gzipped;
+			if (compressed == null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.getBody().length / 4 + 64);
+				try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+					out.write(response.getBody());
+				}
+				compressed = bytes.toByteArray();
+				gzipped = compressed;
+			}
+			return compressed;
+		}
+	}
+}
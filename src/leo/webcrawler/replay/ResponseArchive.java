@@ -0,0 +1,194 @@
+package leo.webcrawler.replay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import leo.webcrawler.log.EventLog;
+
+/**
+ *
+ * The purpose of this class is to keep recorded responses in one gzip
+ * compressed file. Responses are appended as they come and the compressor is
+ * flushed after each one, so the file can be replayed up to the last whole
+ * response even when the crawler was killed. Opening an existing archive
+ * again appends a new gzip member to it, which readers take as the
+ * continuation of the same stream.
+ *
+ * <pre>
+ * archive  : int magic, int version, response*
+ * response : byte 1, text url, long recordedAt, short status,
+ *            int header count, (text name, text value)*, int body length,
+ *            body bytes
+ * text     : modified UTF-8 as written by DataOutputStream.writeUTF
+ * </pre>
+ *
+ * @author leoky
+ *
+ */
+public class ResponseArchive implements ResponseRecorder, Closeable {
+
+	private static final int MAGIC = 0x52574341;
+	private static final int VERSION = 1;
+	private static final int RESPONSE = 1;
+
+	private final File file;
+	private final DataOutputStream out;
+	private long recorded;
+
+	private ResponseArchive(File file, DataOutputStream out) {
+
+		this.file = file;
+		this.out = out;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to open an archive for recording,
+	 * creating it if needed
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ResponseArchive create(File file) throws IOException {
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+
+		boolean fresh = file.length() == 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file, true), 64 * 1024,
+				true)));
+		if (fresh) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.flush();
+		}
+		return new ResponseArchive(file, out);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to append one response and flush it to
+	 * the file
+	 *
+	 * @param response
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void record(RecordedResponse response) throws IOException {
+
+		out.writeByte(RESPONSE);
+		out.writeUTF(response.getUrl());
+		out.writeLong(response.getRecordedAt());
+		out.writeShort(response.getStatus());
+		out.writeInt(response.getHeaders().size());
+		for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+			out.writeUTF(header.getKey());
+			out.writeUTF(header.getValue());
+		}
+		out.writeInt(response.getBody().length);
+		out.write(response.getBody());
+		out.flush();
+		recorded++;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of responses recorded since the archive was opened
+	 */
+	public synchronized long getRecorded() {
+
+		return recorded;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public File getFile() {
+
+		return file;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to finish the gzip stream
+	 */
+	@Override
+	public synchronized void close() {
+
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			EventLog.getInstance().error("archive_close_failed", e).field("file", file.getPath()).log();
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to read every response of an archive. A
+	 * response cut short at the end of the file is dropped.
+	 *
+	 * @param file
+	 * @return the responses in recording order
+	 * @throws IOException
+	 *             if the file is not an archive or cannot be read
+	 */
+	public static List<RecordedResponse> read(File file) throws IOException {
+
+		List<RecordedResponse> responses = new ArrayList<RecordedResponse>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 64 * 1024)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a response archive");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported response archive version " + version + " in " + file);
+
+			try {
+				for (int tag; (tag = in.read()) >= 0;) {
+					if (tag != RESPONSE)
+						throw new IOException("Corrupt response archive " + file + " after " + responses.size() + " responses");
+					responses.add(readResponse(in));
+				}
+			}
+			catch (EOFException e) {
+				// the crawler stopped in the middle of a response
+			}
+		}
+		return responses;
+	}
+
+	private static RecordedResponse readResponse(DataInputStream in) throws IOException {
+
+		String url = in.readUTF();
+		long recordedAt = in.readLong();
+		int status = in.readUnsignedShort();
+		int headerCount = in.readInt();
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		for (int i = 0; i < headerCount; i++)
+			headers.put(in.readUTF(), in.readUTF());
+		byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return new RecordedResponse(url, recordedAt, status, headers, body);
+	}
+}
@@ -0,0 +1,24 @@
+package leo.webcrawler.replay;
+
+import java.io.IOException;
+
+/**
+ *
+ * The purpose of this interface is to receive every response the
+ * {@link leo.webcrawler.connect.HttpClient} gets while recording
+ *
+ * @author leoky
+ *
+ */
+public interface ResponseRecorder {
+
+	/**
+	 *
+	 * The purpose of this method is to keep one response; it is called from
+	 * every crawling thread
+	 *
+	 * @param response
+	 * @throws IOException
+	 */
+	void record(RecordedResponse response) throws IOException;
+}
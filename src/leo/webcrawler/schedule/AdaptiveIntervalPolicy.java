@@ -0,0 +1,182 @@
+package leo.webcrawler.schedule;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * The purpose of this class is to spend a fixed request budget where new
+ * listings actually show up. The arrival rate of every query is estimated
+ * from the new listings its crawls found, with older observations decaying
+ * away. A listing waits on average half an interval before it is detected, so
+ * the expected detection latency summed over all arrivals is smallest when
+ * every interval is proportional to 1 / sqrt(rate); the intervals are scaled
+ * so that all queries together poll at the budget, then kept within the
+ * configured bounds. A failed crawl tells nothing about arrivals, so it is not
+ * counted; instead the interval of the query is doubled for every failure in
+ * a row, up to the longest interval, until a crawl succeeds again.
+ *
+ * @author leoky
+ *
+ */
+public class AdaptiveIntervalPolicy implements IntervalPolicy {
+
+	private static final double HOUR = 1000 * 60 * 60;
+	private static final double PRIOR_ARRIVALS = 1;
+	private static final double PRIOR_EXPOSURE = 6 * HOUR;
+	private static final int MAX_BACKOFF_DOUBLINGS = 16;
+
+	private final double pollsPerMillisecond;
+	private final long minInterval;
+	private final long maxInterval;
+	private final double decayTime;
+	private final Map<WatchQuery, ArrivalEstimate> estimates;
+	private final Map<WatchQuery, Integer> failures;
+
+	/**
+	 *
+	 * @param pollsPerHour
+	 *            the request budget shared by all queries
+	 * @param minInterval
+	 *            the shortest interval, in milliseconds
+	 * @param maxInterval
+	 *            the longest interval, in milliseconds
+	 * @param halfLife
+	 *            how long it takes an observation to weigh half as much, in
+	 *            milliseconds
+	 */
+	public AdaptiveIntervalPolicy(double pollsPerHour, long minInterval, long maxInterval, long halfLife) {
+
+		this.pollsPerMillisecond = pollsPerHour / HOUR;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.decayTime = halfLife / Math.log(2);
+		this.estimates = new LinkedHashMap<WatchQuery, ArrivalEstimate>();
+		this.failures = new HashMap<WatchQuery, Integer>();
+	}
+
+	@Override
+	public synchronized long nextInterval(WatchQuery query, long currentInterval, int newListings) {
+
+		failures.remove(query);
+		long now = System.currentTimeMillis();
+		ArrivalEstimate estimate = estimates.get(query);
+		if (estimate == null) {
+			estimate = new ArrivalEstimate(now - currentInterval);
+			estimates.put(query, estimate);
+		}
+		estimate.observe(now, newListings);
+		return intervalOf(estimate);
+	}
+
+	@Override
+	public synchronized long failedInterval(WatchQuery query, long currentInterval) {
+
+		int failed = failures.merge(query, 1, Integer::sum);
+		ArrivalEstimate estimate = estimates.get(query);
+		long interval = estimate == null ? Math.max(minInterval, currentInterval) : intervalOf(estimate);
+		return Math.min(maxInterval, interval << Math.min(failed, MAX_BACKOFF_DOUBLINGS));
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the current interval of every query, in milliseconds
+	 */
+	public synchronized Map<String, Long> getIntervals() {
+
+		Map<String, Long> intervals = new LinkedHashMap<String, Long>();
+		for (Map.Entry<WatchQuery, ArrivalEstimate> entry : estimates.entrySet())
+			intervals.put(entry.getKey().getName(), intervalOf(entry.getValue()));
+		return intervals;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the estimated arrival rate of every query, in listings per hour
+	 */
+	public synchronized Map<String, Double> getArrivalRates() {
+
+		Map<String, Double> rates = new LinkedHashMap<String, Double>();
+		for (Map.Entry<WatchQuery, ArrivalEstimate> entry : estimates.entrySet())
+			rates.put(entry.getKey().getName(), entry.getValue().rate() * HOUR);
+		return rates;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the expected time between a listing appearing and the crawler
+	 *         detecting it, for every query, in milliseconds
+	 */
+	public synchronized Map<String, Long> getDetectionLatencies() {
+
+		Map<String, Long> latencies = new LinkedHashMap<String, Long>();
+		for (Map.Entry<WatchQuery, ArrivalEstimate> entry : estimates.entrySet())
+			latencies.put(entry.getKey().getName(), intervalOf(entry.getValue()) / 2);
+		return latencies;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the expected detection latency over all queries, weighted by
+	 *         their arrival rates, in milliseconds
+	 */
+	public synchronized long getDetectionLatency() {
+
+		double weighted = 0;
+		double totalRate = 0;
+		for (ArrivalEstimate estimate : estimates.values()) {
+			double rate = estimate.rate();
+			weighted += rate * intervalOf(estimate) / 2.0;
+			totalRate += rate;
+		}
+		return totalRate == 0 ? 0 : (long) (weighted / totalRate);
+	}
+
+	private long intervalOf(ArrivalEstimate estimate) {
+
+		double sqrtRateSum = 0;
+		for (ArrivalEstimate other : estimates.values())
+			sqrtRateSum += Math.sqrt(other.rate());
+		double interval = sqrtRateSum / (pollsPerMillisecond * Math.sqrt(estimate.rate()));
+		return Math.max(minInterval, Math.min(maxInterval, (long) interval));
+	}
+
+	/**
+	 * Decayed count of arrivals over decayed observation time of one query,
+	 * started from a weak prior so a new query is not judged on one crawl
+	 */
+	private class ArrivalEstimate {
+
+		private double arrivals;
+		private double exposure;
+		private long lastObservation;
+
+		private ArrivalEstimate(long start) {
+
+			this.lastObservation = start;
+		}
+
+		private void observe(long now, int newListings) {
+
+			double elapsed = Math.max(0, now - lastObservation);
+			double decay = Math.exp(-elapsed / decayTime);
+			arrivals = arrivals * decay + newListings;
+			exposure = exposure * decay + elapsed;
+			lastObservation = now;
+		}
+
+		private double rate() {
+
+			return (arrivals + PRIOR_ARRIVALS) / (exposure + PRIOR_EXPOSURE);
+		}
+	}
+}
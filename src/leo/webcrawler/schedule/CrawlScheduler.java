@@ -0,0 +1,216 @@
+package leo.webcrawler.schedule;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import leo.webcrawler.log.EventLog;
+import leo.webcrawler.metrics.Histogram;
+import leo.webcrawler.metrics.MetricsRegistry;
+
+/**
+ *
+ * The purpose of this class is to poll many watch queries on a few threads.
+ * Every query has its own interval, decided by an {@link IntervalPolicy}
+ * after each crawl, and its own randomized jitter. A query is scheduled again
+ * only once its crawl has finished, so crawls of the same query never
+ * overlap, and the next start is computed from the previous planned start so
+ * the schedule does not drift. A failing crawl, errors included, is reported
+ * and the query simply runs again later. The length of every poll, the number of polls
+ * waiting for a thread and the current interval of every query are exported
+ * to the {@link MetricsRegistry}.
+ *
+ * @author leoky
+ *
+ */
+public class CrawlScheduler {
+
+	private static final Histogram POLL_DURATION = MetricsRegistry.getInstance().histogram("rentwebcrawler_poll_duration_seconds",
+			"Time to crawl and diff one watch query", Histogram.NANOSECONDS);
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final IntervalPolicy intervalPolicy;
+	private final double jitter;
+	private final ConcurrentMap<WatchQuery, ScheduledQuery> queries;
+
+	/**
+	 * The work done on every poll of a query
+	 */
+	public interface QueryCrawl {
+
+		/**
+		 *
+		 * The purpose of this method is
+		 *
+		 * @param query
+		 * @return the number of new listings found
+		 * @throws Exception
+		 */
+		int crawl(WatchQuery query) throws Exception;
+	}
+
+	/**
+	 *
+	 * @param threads
+	 * @param intervalPolicy
+	 * @param jitter
+	 *            the largest random shift of a start, as a fraction of the
+	 *            interval
+	 */
+	public CrawlScheduler(int threads, IntervalPolicy intervalPolicy, double jitter) {
+
+		this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+			Thread thread = new Thread(runnable, "crawl-scheduler");
+			return thread;
+		});
+		this.intervalPolicy = intervalPolicy;
+		this.jitter = jitter;
+		this.queries = new ConcurrentHashMap<WatchQuery, ScheduledQuery>();
+		MetricsRegistry.getInstance().gauge("rentwebcrawler_scheduler_queue_depth", "Polls waiting for their start or for a thread",
+				() -> executor.getQueue().size());
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to start polling a query
+	 *
+	 * @param query
+	 * @param crawl
+	 * @param initialDelay
+	 *            the delay before the first crawl, in milliseconds
+	 */
+	public void schedule(WatchQuery query, QueryCrawl crawl, long initialDelay) {
+
+		ScheduledQuery scheduled = new ScheduledQuery(query, crawl);
+		ScheduledQuery previous = queries.put(query, scheduled);
+		if (previous != null)
+			previous.cancel();
+		MetricsRegistry.getInstance().gauge("rentwebcrawler_poll_interval_seconds", "Current poll interval of a watch query",
+				() -> getCurrentInterval(query) / 1000.0, "query", query.getName());
+		scheduled.start(initialDelay);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop polling a query
+	 *
+	 * @param query
+	 */
+	public void cancel(WatchQuery query) {
+
+		ScheduledQuery scheduled = queries.remove(query);
+		if (scheduled != null)
+			scheduled.cancel();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param query
+	 * @return the interval the query is currently polled at, in
+	 *         milliseconds, or 0 if it is not scheduled
+	 */
+	public long getCurrentInterval(WatchQuery query) {
+
+		ScheduledQuery scheduled = queries.get(query);
+		return scheduled == null ? 0 : scheduled.interval;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to stop all polling
+	 */
+	public void shutdown() {
+
+		for (ScheduledQuery scheduled : queries.values())
+			scheduled.cancel();
+		queries.clear();
+		executor.shutdown();
+	}
+
+	private long jittered(long delay, long interval) {
+
+		if (jitter <= 0)
+			return Math.max(0, delay);
+		long spread = (long) (interval * jitter);
+		return Math.max(0, delay + ThreadLocalRandom.current().nextLong(-spread, spread + 1));
+	}
+
+	/**
+	 * One query and its position in the schedule
+	 */
+	private class ScheduledQuery implements Runnable {
+
+		private final WatchQuery query;
+		private final QueryCrawl crawl;
+		private final AtomicBoolean running;
+		private volatile long interval;
+		private volatile boolean cancelled;
+		private volatile ScheduledFuture<?> future;
+		private long plannedStart;
+
+		private ScheduledQuery(WatchQuery query, QueryCrawl crawl) {
+
+			this.query = query;
+			this.crawl = crawl;
+			this.running = new AtomicBoolean();
+			this.interval = query.getInterval();
+		}
+
+		private void start(long initialDelay) {
+
+			plannedStart = System.currentTimeMillis() + initialDelay;
+			future = executor.schedule(this, jittered(initialDelay, interval), TimeUnit.MILLISECONDS);
+		}
+
+		private void cancel() {
+
+			cancelled = true;
+			ScheduledFuture<?> current = future;
+			if (current != null)
+				current.cancel(false);
+		}
+
+		@Override
+		public void run() {
+
+			if (cancelled || !running.compareAndSet(false, true))
+				return;
+
+			int newListings = 0;
+			boolean failed = true;
+			long pollStart = System.nanoTime();
+			try {
+				newListings = crawl.crawl(query);
+				failed = false;
+			}
+			catch (Throwable e) {
+				// an Error must not end the polling of the query either; the
+				// executor would swallow it without a trace
+				MetricsRegistry.getInstance().countError("poll", e);
+				EventLog.getInstance().error("poll_failed", e).field("query", query.getName()).log();
+			}
+			finally {
+				running.set(false);
+				POLL_DURATION.recordSince(pollStart);
+				reschedule(pollStart, newListings, failed);
+			}
+		}
+
+		private void reschedule(long pollStart, int newListings, boolean failed) {
+
+			interval = failed ? intervalPolicy.failedInterval(query, interval) : intervalPolicy.nextInterval(query, interval, newListings);
+			EventLog.getInstance().info("poll").field("query", query.getName()).field("new_listings", newListings).field("failed", failed)
+					.field("millis", (System.nanoTime() - pollStart) / 1000000).field("next_interval", interval).log();
+			long now = System.currentTimeMillis();
+			plannedStart = Math.max(now, plannedStart + interval);
+			if (!cancelled)
+				future = executor.schedule(this, jittered(plannedStart - now, interval), TimeUnit.MILLISECONDS);
+		}
+	}
+}
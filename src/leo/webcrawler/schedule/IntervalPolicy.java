@@ -0,0 +1,38 @@
+package leo.webcrawler.schedule;
+
+/**
+ *
+ * The purpose of this interface is to decide how long the scheduler waits
+ * before polling a query again
+ *
+ * @author leoky
+ *
+ */
+public interface IntervalPolicy {
+
+	/**
+	 *
+	 * The purpose of this method is to compute the next poll interval of a
+	 * query after one of its crawls finished
+	 *
+	 * @param query
+	 * @param currentInterval
+	 *            the interval used for the crawl that just finished
+	 * @param newListings
+	 *            how many new listings the crawl found
+	 * @return the next interval, in milliseconds
+	 */
+	long nextInterval(WatchQuery query, long currentInterval, int newListings);
+
+	/**
+	 *
+	 * The purpose of this method is to compute the next poll interval of a
+	 * query after one of its crawls failed
+	 *
+	 * @param query
+	 * @param currentInterval
+	 *            the interval used for the crawl that just failed
+	 * @return the next interval, in milliseconds
+	 */
+	long failedInterval(WatchQuery query, long currentInterval);
+}
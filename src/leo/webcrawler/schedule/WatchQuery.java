@@ -0,0 +1,89 @@
+package leo.webcrawler.schedule;
+
+/**
+ *
+ * The purpose of this class is to describe one search the crawler watches:
+ * a name, the address built for it and how often it is polled
+ *
+ * @author leoky
+ *
+ */
+public class WatchQuery {
+
+	private final String name;
+	private final String url;
+	private final long interval;
+
+	/**
+	 *
+	 * @param name
+	 *            identifies the query, two queries with the same name are
+	 *            the same query
+	 * @param url
+	 * @param interval
+	 *            the poll interval, in milliseconds
+	 */
+	public WatchQuery(String name, String url, long interval) {
+
+		if (interval <= 0)
+			throw new IllegalArgumentException("The poll interval must be positive");
+		this.name = name;
+		this.url = url;
+		this.interval = interval;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return
+	 */
+	public String getUrl() {
+
+		return url;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the configured poll interval, in milliseconds
+	 */
+	public long getInterval() {
+
+		return interval;
+	}
+
+	@Override
+	public int hashCode() {
+
+		return name.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof WatchQuery))
+			return false;
+		return name.equals(((WatchQuery) obj).name);
+	}
+
+	@Override
+	public String toString() {
+
+		return name;
+	}
+}
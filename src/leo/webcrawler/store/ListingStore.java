@@ -0,0 +1,649 @@
+package leo.webcrawler.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import leo.webcrawler.bean.ExtractedData;
+import leo.webcrawler.bean.ListingKey;
+import leo.webcrawler.log.EventLog;
+
+/**
+ *
+ * The purpose of this class is to keep every seen listing on disk, so that a
+ * restart does not alert on everything again. Listings are appended to
+ * memory-mapped segment files in a compact binary format; the latest record
+ * of a key wins. The in-memory index only holds a 64 bit hash and a position
+ * per key and is rebuilt on open by reading the key bytes of every record in
+ * place, without turning records into objects.
+ * <p>
+ * A listing is forgotten once it has not been observed for the retention
+ * time. The positions of the records are kept in buckets that each cover a
+ * fixed span of time, by the time the record was written; once a whole
+ * bucket is older than the retention, every key whose latest record is in it
+ * leaves the index. A listing still being crawled is appended again once per
+ * bucket span, so its latest record always sits in a recent bucket. When
+ * superseded and expired records outnumber the live ones, the live records
+ * are copied in time order into fresh segments and the old segments are
+ * deleted, so neither the index nor the files grow with the age of the
+ * store.
+ *
+ * <pre>
+ * segment  : int magic, int version, record*, int 0
+ * record   : int length, long observedAt, text key, text title, text url,
+ *            text price, text data
+ * text     : unsigned short byte count (0xFFFF for null), UTF-8 bytes
+ * </pre>
+ *
+ * @author leoky
+ *
+ */
+public class ListingStore implements Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final long DEFAULT_RETENTION = 1000L * 60 * 60 * 24 * 30;
+
+	private static final int RETENTION_BUCKETS = 30;
+	private static final int MAGIC = 0x52574331;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int KEY_OFFSET = 4 + 8;
+	private static final int NULL_TEXT = 0xFFFF;
+	private static final int MAX_TEXT = NULL_TEXT - 1;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	private final File directory;
+	private final int segmentSize;
+	private final long retention;
+	private final long bucketSpan;
+	private List<MappedByteBuffer> segments;
+	private List<File> segmentFiles;
+	private PositionIndex index;
+	private ArrayDeque<Bucket> buckets;
+	private int nextSegmentNumber;
+	private int writeOffset;
+	private long recordCount;
+
+	private ListingStore(File directory, int segmentSize, long retention) {
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		this.bucketSpan = Math.max(1, retention / RETENTION_BUCKETS);
+		this.segments = new ArrayList<MappedByteBuffer>();
+		this.segmentFiles = new ArrayList<File>();
+		this.index = new PositionIndex(1024);
+		this.buckets = new ArrayDeque<Bucket>();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to open the store kept in a directory,
+	 * creating it if needed, and rebuild its index
+	 *
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static ListingStore open(File directory) throws IOException {
+
+		return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RETENTION);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 *            the size of newly created segment files
+	 * @return
+	 * @throws IOException
+	 */
+	public static ListingStore open(File directory, int segmentSize) throws IOException {
+
+		return open(directory, segmentSize, DEFAULT_RETENTION);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 *            the size of newly created segment files
+	 * @param retention
+	 *            how long a listing is remembered after it was last observed,
+	 *            in milliseconds
+	 * @return
+	 * @throws IOException
+	 */
+	public static ListingStore open(File directory, int segmentSize, long retention) throws IOException {
+
+		if (retention <= 0)
+			throw new IllegalArgumentException("The retention must be positive");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create listing store directory " + directory);
+
+		ListingStore store = new ListingStore(directory, segmentSize, retention);
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		Arrays.sort(files, Comparator.comparingInt(ListingStore::numberOf));
+		for (File file : files) {
+			store.segments.add(map(file, file.length()));
+			store.segmentFiles.add(file);
+			store.nextSegmentNumber = numberOf(file) + 1;
+		}
+		if (store.segments.isEmpty())
+			store.addSegment();
+
+		for (int segment = 0; segment < store.segments.size(); segment++)
+			store.writeOffset = store.scan(segment);
+		return store;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param key
+	 * @return true if a record of the key is stored
+	 */
+	public synchronized boolean contains(ListingKey key) {
+
+		return find(encode(key.getValue())) >= 0;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param key
+	 * @return the latest stored version of the listing, or null
+	 */
+	public synchronized ExtractedData get(ListingKey key) {
+
+		long position = find(encode(key.getValue()));
+		return position < 0 ? null : read(position);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to append a listing; it becomes the
+	 * version returned for its key
+	 *
+	 * @param listing
+	 * @param observedAt
+	 *            when the listing was crawled, in epoch milliseconds
+	 * @throws IOException
+	 */
+	public synchronized void put(ExtractedData listing, long observedAt) throws IOException {
+
+		byte[][] texts = { encode(listing.getKey().getValue()), encode(listing.getTitle()), encode(listing.getUrl().toExternalForm()),
+				encode(listing.getPrice()), encode(listing.getData()) };
+		int length = 8;
+		for (byte[] text : texts)
+			length += 2 + (text == null ? 0 : text.length);
+
+		ByteBuffer record = ByteBuffer.allocate(4 + length);
+		record.putInt(length);
+		record.putLong(observedAt);
+		for (byte[] text : texts)
+			writeText(record, text);
+		append(record, 0, observedAt);
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to record that a stored listing was
+	 * crawled again without a change worth storing. It is appended again when
+	 * its latest record was written more than a bucket span ago, so that it
+	 * is not expired while it is still listed.
+	 *
+	 * @param listing
+	 * @param observedAt
+	 *            when the listing was crawled, in epoch milliseconds
+	 * @return true if the listing was appended
+	 * @throws IOException
+	 */
+	public synchronized boolean renew(ExtractedData listing, long observedAt) throws IOException {
+
+		long position = find(encode(listing.getKey().getValue()));
+		if (position < 0 || observedAt - observedAtOf(position) < bucketSpan)
+			return false;
+		put(listing, observedAt);
+		return true;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to forget every listing last observed
+	 * before the retention window, and to compact the log when most of its
+	 * records are no longer the latest of a live key
+	 *
+	 * @param now
+	 *            in epoch milliseconds
+	 * @return the number of listings forgotten
+	 */
+	public synchronized int expire(long now) {
+
+		int dropped = 0;
+		while (!buckets.isEmpty() && buckets.peekFirst().end <= now - retention) {
+			Bucket expired = buckets.removeFirst();
+			for (int i = 0; i < expired.size; i++) {
+				long position = expired.positions[i];
+				if (index.remove(hashAt(segments.get(segmentOf(position)), offsetOf(position)), position))
+					dropped++;
+			}
+		}
+
+		if (segments.size() > 1 && recordCount - index.size() > index.size()) {
+			try {
+				compact();
+			}
+			catch (IOException e) {
+				EventLog.getInstance().error("store_compaction_failed", e).field("directory", directory.getPath()).log();
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of distinct listings stored
+	 */
+	public synchronized int size() {
+
+		return index.size();
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the span of time one expiry bucket covers, in milliseconds
+	 */
+	public long getBucketSpan() {
+
+		return bucketSpan;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of records in the log, including superseded and
+	 *         expired ones not compacted yet
+	 */
+	public synchronized long getRecordCount() {
+
+		return recordCount;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to write the mapped segments back to disk
+	 */
+	public synchronized void flush() {
+
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	@Override
+	public synchronized void close() {
+
+		flush();
+	}
+
+	private long find(final byte[] key) {
+
+		return index.find(hash(key), position -> keyEquals(position, key));
+	}
+
+	/**
+	 * Copies the record found at an offset of a buffer to the end of the log
+	 * with another observation time, and makes it the latest of its key
+	 */
+	private void append(ByteBuffer source, int offset, long observedAt) throws IOException {
+
+		int length = source.getInt(offset);
+		if (HEADER_SIZE + 4 + length + 4 > segmentSize)
+			throw new IOException("Listing record of " + length + " bytes does not fit in a segment");
+		if (writeOffset + 4 + length + 4 > segments.get(segments.size() - 1).capacity())
+			addSegment();
+
+		// the length goes in last, so a record cut short by a crash is never
+		// picked up by the scan on the next open
+		int segment = segments.size() - 1;
+		ByteBuffer buffer = segments.get(segment).duplicate();
+		ByteBuffer body = source.duplicate();
+		body.limit(offset + 4 + length);
+		body.position(offset + 4 + 8);
+		buffer.position(writeOffset + 4);
+		buffer.putLong(observedAt);
+		buffer.put(body);
+		buffer.putInt(writeOffset, length);
+
+		final long position = positionOf(segment, writeOffset);
+		index.put(hashAt(buffer, writeOffset), position, existing -> keysEqual(existing, position));
+		bucketOf(observedAt).add(position);
+		writeOffset = buffer.position();
+		recordCount++;
+	}
+
+	/**
+	 * Copies the latest record of every live key, oldest bucket first, into
+	 * segments numbered after the current ones, then deletes the current
+	 * ones. A crash half way leaves both, and the copies read last win.
+	 */
+	private void compact() throws IOException {
+
+		long start = System.nanoTime();
+		long recordsBefore = recordCount;
+		ListingStore compacted = new ListingStore(directory, segmentSize, retention);
+		compacted.nextSegmentNumber = nextSegmentNumber;
+		try {
+			compacted.addSegment();
+			for (Bucket bucket : buckets) {
+				for (int i = 0; i < bucket.size; i++) {
+					final long position = bucket.positions[i];
+					ByteBuffer segment = segments.get(segmentOf(position));
+					if (index.find(hashAt(segment, offsetOf(position)), existing -> existing == position) >= 0)
+						compacted.append(segment, offsetOf(position), observedAtOf(position));
+				}
+			}
+			compacted.flush();
+		}
+		catch (IOException e) {
+			for (File file : compacted.segmentFiles)
+				file.delete();
+			throw e;
+		}
+
+		List<File> obsolete = segmentFiles;
+		segments = compacted.segments;
+		segmentFiles = compacted.segmentFiles;
+		index = compacted.index;
+		buckets = compacted.buckets;
+		nextSegmentNumber = compacted.nextSegmentNumber;
+		writeOffset = compacted.writeOffset;
+		recordCount = compacted.recordCount;
+		for (File file : obsolete) {
+			// a file still mapped cannot be deleted everywhere; it is read
+			// again and deleted by the next compaction after a restart
+			if (!file.delete())
+				EventLog.getInstance().warn("store_segment_delete_failed").field("file", file.getPath()).log();
+		}
+		EventLog.getInstance().info("store_compacted").field("directory", directory.getPath()).field("records_before", recordsBefore)
+				.field("records_after", recordCount).field("millis", (System.nanoTime() - start) / 1000000).log();
+	}
+
+	/**
+	 * Indexes every record of a segment and returns the offset after the last
+	 * one. A record that does not fit its length, torn by a crash or damaged,
+	 * ends the segment: it and whatever follows are cleared, so later appends
+	 * never run into them.
+	 */
+	private int scan(int segment) throws IOException {
+
+		MappedByteBuffer buffer = segments.get(segment);
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException("Not a listing store segment: " + segmentFiles.get(segment));
+
+		int offset = HEADER_SIZE;
+		while (offset + 4 <= buffer.capacity()) {
+			int length = buffer.getInt(offset);
+			if (length == 0)
+				break;
+			if (!isValidRecord(buffer, offset)) {
+				EventLog.getInstance().warn("store_segment_truncated").field("file", segmentFiles.get(segment).getPath())
+						.field("offset", offset).field("bytes_cleared", buffer.capacity() - offset).log();
+				clear(buffer, offset);
+				break;
+			}
+			final long position = positionOf(segment, offset);
+			index.put(hashAt(buffer, offset), position, existing -> keysEqual(existing, position));
+			bucketOf(buffer.getLong(offset + 4)).add(position);
+			recordCount++;
+			offset += 4 + length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Whether the record at an offset lies within the buffer and its length
+	 * holds the observation time and all its texts
+	 */
+	private static boolean isValidRecord(ByteBuffer buffer, int offset) {
+
+		int length = buffer.getInt(offset);
+		if (length < 8 || length > buffer.capacity() - offset - 4)
+			return false;
+		int end = offset + 4 + length;
+		int text = offset + KEY_OFFSET;
+		for (int i = 0; i < 5; i++) {
+			if (text + 2 > end)
+				return false;
+			int textLength = buffer.getChar(text);
+			text += 2 + (textLength == NULL_TEXT ? 0 : textLength);
+		}
+		return text == end && buffer.getChar(offset + KEY_OFFSET) != NULL_TEXT;
+	}
+
+	private static void clear(MappedByteBuffer buffer, int offset) {
+
+		ByteBuffer tail = buffer.duplicate();
+		tail.position(offset);
+		byte[] zeros = new byte[Math.min(64 * 1024, tail.remaining())];
+		while (tail.hasRemaining())
+			tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+		buffer.force();
+	}
+
+	private ExtractedData read(long position) {
+
+		ByteBuffer buffer = segments.get(segmentOf(position)).duplicate();
+		buffer.position(offsetOf(position) + 4);
+		long observedAt = buffer.getLong();
+		readText(buffer);
+		String title = readText(buffer);
+		String url = readText(buffer);
+		String price = readText(buffer);
+		String data = readText(buffer);
+		try {
+			ExtractedData listing = new ExtractedData(title, url);
+			listing.setPrice(price);
+			listing.setData(data, observedAt);
+			return listing;
+		}
+		catch (MalformedURLException e) {
+			throw new IllegalStateException("Corrupted listing record at " + position, e);
+		}
+	}
+
+	private long observedAtOf(long position) {
+
+		return segments.get(segmentOf(position)).getLong(offsetOf(position) + 4);
+	}
+
+	private boolean keyEquals(long position, byte[] key) {
+
+		ByteBuffer buffer = segments.get(segmentOf(position));
+		int offset = offsetOf(position) + KEY_OFFSET;
+		if (buffer.getChar(offset) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(offset + 2 + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	private boolean keysEqual(long first, long second) {
+
+		ByteBuffer firstBuffer = segments.get(segmentOf(first));
+		ByteBuffer secondBuffer = segments.get(segmentOf(second));
+		int firstOffset = offsetOf(first) + KEY_OFFSET;
+		int secondOffset = offsetOf(second) + KEY_OFFSET;
+		int length = firstBuffer.getChar(firstOffset);
+		if (secondBuffer.getChar(secondOffset) != length)
+			return false;
+		for (int i = 2; i < length + 2; i++) {
+			if (firstBuffer.get(firstOffset + i) != secondBuffer.get(secondOffset + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Records are appended in time order, so only the newest bucket is ever
+	 * written to; a late record joins it rather than an older bucket
+	 */
+	private Bucket bucketOf(long observedAt) {
+
+		Bucket newest = buckets.peekLast();
+		if (newest != null && observedAt < newest.end)
+			return newest;
+		long start = observedAt - Math.floorMod(observedAt, bucketSpan);
+		Bucket bucket = new Bucket(start + bucketSpan);
+		buckets.addLast(bucket);
+		return bucket;
+	}
+
+	private void addSegment() throws IOException {
+
+		File file = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+		MappedByteBuffer buffer = map(file, segmentSize);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		segments.add(buffer);
+		segmentFiles.add(file);
+		writeOffset = HEADER_SIZE;
+	}
+
+	private static int numberOf(File segmentFile) {
+
+		String name = segmentFile.getName();
+		return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	private static void writeText(ByteBuffer buffer, byte[] text) {
+
+		if (text == null) {
+			buffer.putChar((char) NULL_TEXT);
+			return;
+		}
+		buffer.putChar((char) text.length);
+		buffer.put(text);
+	}
+
+	private static String readText(ByteBuffer buffer) {
+
+		int length = buffer.getChar();
+		if (length == NULL_TEXT)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] encode(String text) {
+
+		if (text == null)
+			return null;
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_TEXT)
+			return bytes;
+		// cut before the character that would be split, not inside it
+		int cut = MAX_TEXT;
+		while (cut > 0 && (bytes[cut] & 0xC0) == 0x80)
+			cut--;
+		return Arrays.copyOf(bytes, cut);
+	}
+
+	/**
+	 * FNV-1a over the key bytes, the same whether they come from an array or
+	 * straight from a mapped record
+	 */
+	static long hash(byte[] key) {
+
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : key) {
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static long hashAt(ByteBuffer buffer, int offset) {
+
+		int start = offset + KEY_OFFSET;
+		int length = buffer.getChar(start);
+		long hash = 0xcbf29ce484222325L;
+		for (int i = start + 2; i < start + 2 + length; i++) {
+			hash ^= buffer.get(i) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static long positionOf(int segment, int offset) {
+
+		return ((long) segment << 32) | offset;
+	}
+
+	private static int segmentOf(long position) {
+
+		return (int) (position >>> 32);
+	}
+
+	private static int offsetOf(long position) {
+
+		return (int) position;
+	}
+
+	/**
+	 * The positions of the records written before the end of one span of
+	 * time
+	 */
+	private static class Bucket {
+
+		private final long end;
+		private long[] positions;
+		private int size;
+
+		private Bucket(long end) {
+
+			this.end = end;
+			this.positions = new long[16];
+		}
+
+		private void add(long position) {
+
+			if (size == positions.length)
+				positions = Arrays.copyOf(positions, size << 1);
+			positions[size++] = position;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package leo.webcrawler.store;
+
+/**
+ *
+ * The purpose of this class is to map 64 bit key hashes to record positions
+ * with open addressing over two primitive arrays. Different keys may share a
+ * hash, so every lookup is confirmed by a {@link PositionMatcher} that looks
+ * at the record itself.
+ *
+ * @author leoky
+ *
+ */
+class PositionIndex {
+
+	private static final long EMPTY = 0L;
+	private static final double MAX_LOAD = 0.6;
+
+	private long[] hashes;
+	private long[] positions;
+	private int size;
+
+	/**
+	 * Decides whether the record at a position holds the key being looked for
+	 */
+	interface PositionMatcher {
+
+		boolean matches(long position);
+	}
+
+	/**
+	 *
+	 * @param expectedSize
+	 */
+	PositionIndex(int expectedSize) {
+
+		int capacity = 16;
+		while (capacity * MAX_LOAD < expectedSize)
+			capacity <<= 1;
+		hashes = new long[capacity];
+		positions = new long[capacity];
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @param hash
+	 * @param matcher
+	 * @return the position of the matching record, or -1
+	 */
+	long find(long hash, PositionMatcher matcher) {
+
+		int mask = positions.length - 1;
+		for (int slot = slotOf(hash, mask);; slot = (slot + 1) & mask) {
+			long position = positions[slot];
+			if (position == EMPTY)
+				return -1;
+			if (hashes[slot] == hash && matcher.matches(position))
+				return position;
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to point a key to a new record, replacing
+	 * the position of an older record of the same key
+	 *
+	 * @param hash
+	 * @param position
+	 *            never 0, which marks an empty slot
+	 * @param matcher
+	 * @return true if the key was not indexed before
+	 */
+	boolean put(long hash, long position, PositionMatcher matcher) {
+
+		int mask = positions.length - 1;
+		for (int slot = slotOf(hash, mask);; slot = (slot + 1) & mask) {
+			long current = positions[slot];
+			if (current == EMPTY) {
+				hashes[slot] = hash;
+				positions[slot] = position;
+				if (++size > positions.length * MAX_LOAD)
+					grow();
+				return true;
+			}
+			if (hashes[slot] == hash && matcher.matches(current)) {
+				positions[slot] = position;
+				return false;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * The purpose of this method is to remove a key if it still points to a
+	 * given record; the entries after it in the probe sequence are shifted
+	 * back, so lookups never need tombstones
+	 *
+	 * @param hash
+	 * @param position
+	 * @return true if the key pointed to the position and was removed
+	 */
+	boolean remove(long hash, long position) {
+
+		int mask = positions.length - 1;
+		int hole = slotOf(hash, mask);
+		while (positions[hole] != position) {
+			if (positions[hole] == EMPTY)
+				return false;
+			hole = (hole + 1) & mask;
+		}
+
+		for (int slot = (hole + 1) & mask; positions[slot] != EMPTY; slot = (slot + 1) & mask) {
+			// an entry may fill the hole unless its home slot lies after the
+			// hole, up to the entry itself
+			int home = slotOf(hashes[slot], mask);
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				hashes[hole] = hashes[slot];
+				positions[hole] = positions[slot];
+				hole = slot;
+			}
+		}
+		hashes[hole] = 0;
+		positions[hole] = EMPTY;
+		size--;
+		return true;
+	}
+
+	/**
+	 *
+	 * The purpose of this method is
+	 *
+	 * @return the number of indexed keys
+	 */
+	int size() {
+
+		return size;
+	}
+
+	private void grow() {
+
+		long[] oldHashes = hashes;
+		long[] oldPositions = positions;
+		hashes = new long[oldHashes.length << 1];
+		positions = new long[oldPositions.length << 1];
+		int mask = positions.length - 1;
+		for (int i = 0; i < oldPositions.length; i++) {
+			if (oldPositions[i] == EMPTY)
+				continue;
+			int slot = slotOf(oldHashes[i], mask);
+			while (positions[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			hashes[slot] = oldHashes[i];
+			positions[slot] = oldPositions[i];
+		}
+	}
+
+	private static int slotOf(long hash, int mask) {
+
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}